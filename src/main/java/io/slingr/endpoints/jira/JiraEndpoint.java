@@ -7,15 +7,37 @@ import io.slingr.endpoints.framework.annotations.EndpointProperty;
 import io.slingr.endpoints.framework.annotations.EndpointWebService;
 import io.slingr.endpoints.framework.annotations.SlingrEndpoint;
 import io.slingr.endpoints.jira.converters.IssueConverter;
+import io.slingr.endpoints.jira.services.CircuitBreaker;
+import io.slingr.endpoints.jira.services.Compression;
+import io.slingr.endpoints.jira.services.ConditionalGets;
+import io.slingr.endpoints.jira.services.ConnectionPool;
+import io.slingr.endpoints.jira.services.DeltaSync;
 import io.slingr.endpoints.jira.services.FieldsCache;
+import io.slingr.endpoints.jira.services.IssueCache;
 import io.slingr.endpoints.jira.services.JiraApi;
 import io.slingr.endpoints.jira.services.JiraEvents;
+import io.slingr.endpoints.jira.services.ProjectsCache;
+import io.slingr.endpoints.jira.services.RateLimiter;
+import io.slingr.endpoints.services.rest.DownloadedFile;
 import io.slingr.endpoints.services.rest.RestMethod;
 import io.slingr.endpoints.utils.Json;
 import io.slingr.endpoints.ws.exchange.WebServiceRequest;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * <p>JIRA endpoint
  *
@@ -25,6 +47,19 @@ import org.slf4j.LoggerFactory;
 public class JiraEndpoint extends Endpoint {
     private static final Logger logger = LoggerFactory.getLogger(JiraEndpoint.class);
 
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+    private static final int DEFAULT_SEARCH_PARALLELISM = 4;
+    private static final int DEFAULT_ISSUE_BATCH_WINDOW = 5;
+    private static final int DEFAULT_TRANSITIONS_CACHE_TTL = 600;
+    private static final int DEFAULT_PROJECTS_REFRESH_PERIOD = 3600;
+    private static final int DEFAULT_FIELDS_REFRESH_PERIOD = 900;
+    private static final int DEFAULT_FIELDS_REFRESH_JITTER = 60;
+    private static final int DEFAULT_ISSUE_CACHE_SIZE = 1000;
+    private static final int DEFAULT_ISSUE_CACHE_TTL = 300;
+    private static final int DEFAULT_WORK_LOGS_PARALLELISM = 4;
+    private static final String DEFAULT_DATA_FOLDER = "data";
+    private static final String FIELDS_SNAPSHOT_FILE = "fields.json";
+
     @EndpointProperty
     private String username;
 
@@ -34,8 +69,74 @@ public class JiraEndpoint extends Endpoint {
     @EndpointProperty
     private String jiraUrl;
 
+    @EndpointProperty
+    private String searchParallelism;
+
+    @EndpointProperty
+    private String issueBatchWindow;
+
+    @EndpointProperty
+    private String transitionsCacheTtl;
+
+    @EndpointProperty
+    private String projectsRefreshPeriod;
+
+    @EndpointProperty
+    private String fieldsRefreshPeriod;
+
+    @EndpointProperty
+    private String fieldsRefreshJitter;
+
+    @EndpointProperty
+    private String maxConnectionsPerRoute;
+
+    @EndpointProperty
+    private String keepAlive;
+
+    @EndpointProperty
+    private String maxConcurrency;
+
+    @EndpointProperty
+    private String searchConcurrency;
+
+    @EndpointProperty
+    private String writeConcurrency;
+
+    @EndpointProperty
+    private String metadataConcurrency;
+
+    @EndpointProperty
+    private String transferConcurrency;
+
+    @EndpointProperty
+    private String circuitBreakerThreshold;
+
+    @EndpointProperty
+    private String circuitBreakerOpenTime;
+
+    @EndpointProperty
+    private String asyncThreads;
+
+    @EndpointProperty
+    private String issueCacheSize;
+
+    @EndpointProperty
+    private String issueCacheTtl;
+
+    @EndpointProperty
+    private String dataFolder;
+
+    @EndpointProperty
+    private String compressRequests;
+
+    @EndpointProperty
+    private String responseCacheSize;
+
     private JiraApi jiraApi = null;
     private FieldsCache fieldsCache = null;
+    private ProjectsCache projectsCache = null;
+    private IssueCache issueCache = null;
+    private DeltaSync deltaSync = null;
     private IssueConverter issueConverter = null;
     private JiraEvents jiraEvents = null;
 
@@ -43,17 +144,69 @@ public class JiraEndpoint extends Endpoint {
     public void endpointStarted() {
         setupRetryableExceptionsProperties(6, 1000);
 
+        // connections have to be configured before any request is done
+        final ConnectionPool connectionPool = new ConnectionPool(
+                intProperty(maxConnectionsPerRoute, ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                StringUtils.isBlank(keepAlive) || Boolean.parseBoolean(keepAlive.trim())
+        );
         jiraApi = new JiraApi(this.jiraUrl, this.username, this.password, this.properties().isDebug());
+        jiraApi.setConnectionPool(connectionPool);
+        jiraApi.setConditionalGets(new ConditionalGets(intProperty(responseCacheSize, (int) (ConditionalGets.DEFAULT_MAX_TOTAL_SIZE / 1024 / 1024)) * 1024L * 1024L));
+        jiraApi.setCompression(new Compression(StringUtils.isNotBlank(compressRequests) && Boolean.parseBoolean(compressRequests.trim())));
+        jiraApi.setRateLimiter(new RateLimiter(intProperty(maxConcurrency, RateLimiter.DEFAULT_MAX_CONCURRENCY), RateLimiter.DEFAULT_MAX_WAIT));
+        jiraApi.setBulkheads(
+                intProperty(searchConcurrency, JiraApi.DEFAULT_SEARCH_CONCURRENCY),
+                intProperty(writeConcurrency, JiraApi.DEFAULT_WRITE_CONCURRENCY),
+                intProperty(metadataConcurrency, JiraApi.DEFAULT_METADATA_CONCURRENCY),
+                intProperty(transferConcurrency, JiraApi.DEFAULT_TRANSFER_CONCURRENCY)
+        );
+        jiraApi.setCircuitBreaker(new CircuitBreaker(
+                intProperty(circuitBreakerThreshold, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD),
+                intProperty(circuitBreakerOpenTime, (int) (CircuitBreaker.DEFAULT_OPEN_TIME / 1000)) * 1000L
+        ));
+        jiraApi.setAsyncThreads(intProperty(asyncThreads, JiraApi.DEFAULT_ASYNC_THREADS));
+        jiraApi.setIssueBatchWindow(intProperty(issueBatchWindow, DEFAULT_ISSUE_BATCH_WINDOW));
+        jiraApi.setTransitionsTtl(intProperty(transitionsCacheTtl, DEFAULT_TRANSITIONS_CACHE_TTL) * 1000L);
+        final String folder = StringUtils.isBlank(dataFolder) ? DEFAULT_DATA_FOLDER : dataFolder.trim();
         fieldsCache = new FieldsCache(jiraApi);
-        issueConverter = new IssueConverter(fieldsCache);
-        jiraEvents = new JiraEvents(issueConverter, jiraApi, fieldsCache);
+        fieldsCache.setSnapshotFile(Paths.get(folder, FIELDS_SNAPSHOT_FILE));
+        projectsCache = new ProjectsCache(jiraApi);
+        issueConverter = new IssueConverter(fieldsCache, projectsCache);
+        jiraEvents = new JiraEvents(issueConverter, jiraApi, fieldsCache, projectsCache);
+        issueCache = new IssueCache(intProperty(issueCacheSize, DEFAULT_ISSUE_CACHE_SIZE), intProperty(issueCacheTtl, DEFAULT_ISSUE_CACHE_TTL) * 1000L);
+        // cached issues have custom fields converted with the old names and types
+        fieldsCache.setChangeListener(issueCache::invalidateAll);
+        deltaSync = new DeltaSync(jiraApi, folder);
 
-        // inits fields cache at the beginning
-        try {
-            fieldsCache.refresh();
-        } catch (Exception e) {
-            logger.warn(String.format("Problem trying to init fields cache. We will try later when we need it - exception: [%s]", e.getMessage()), e);
+        // inits fields cache at the beginning; if there is a snapshot from a previous run we use it
+        // and check against JIRA in the background, so we don't need to wait for JIRA to start
+        if (fieldsCache.loadSnapshot()) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    fieldsCache.refresh();
+                } catch (Exception e) {
+                    logger.warn(String.format("Problem trying to revalidate fields cache. We will keep fields from snapshot - exception: [%s]", e.getMessage()), e);
+                }
+            });
+        } else {
+            try {
+                fieldsCache.refresh();
+            } catch (Exception e) {
+                logger.warn(String.format("Problem trying to init fields cache. We will try later when we need it - exception: [%s]", e.getMessage()), e);
+            }
         }
+        // inits projects cache in the background, so if JIRA is slow or unreachable we don't wait
+        // for timeouts to start; projects are fetched one by one when they are needed before this
+        // is done
+        CompletableFuture.runAsync(() -> {
+            try {
+                projectsCache.refresh();
+            } catch (Exception e) {
+                logger.warn(String.format("Problem trying to init projects cache. We will try later when we need it - exception: [%s]", e.getMessage()), e);
+            }
+        });
+        fieldsCache.scheduleRefresh(intProperty(fieldsRefreshPeriod, DEFAULT_FIELDS_REFRESH_PERIOD), intProperty(fieldsRefreshJitter, DEFAULT_FIELDS_REFRESH_JITTER));
+        projectsCache.scheduleRefresh(intProperty(projectsRefreshPeriod, DEFAULT_PROJECTS_REFRESH_PERIOD), 0);
 
         logger.info(String.format("Configured JIRA endpoint: username [%s], JIRA URL [%s]", this.username, this.jiraUrl));
     }
@@ -63,37 +216,230 @@ public class JiraEndpoint extends Endpoint {
      */
     @EndpointFunction
     public Json findIssues(Json params){
-        final Json issues = jiraApi.findIssues(params);
-        return issueConverter.searchResultFromJiraToApp(issues);
+        // issues are converted while the response is read, so raw issues don't pile up in memory;
+        // the few ones that need to look up fields or projects in JIRA are converted afterwards,
+        // as the search is still holding its slot while the response is read
+        final Set<String> requestedFields = IssueConverter.requestedFields(params);
+        // if fields couldn't be loaded before, we try now so issues don't need to wait for it
+        fieldsCache.refreshIfEmpty();
+        final List<Json> converted = new ArrayList<>();
+        final Map<Integer, Json> pending = new HashMap<>();
+        final Json result = jiraApi.streamIssues(params, issue -> {
+            if (issueConverter.needsLookups(issue)) {
+                pending.put(converted.size(), issue);
+                converted.add(null);
+            } else {
+                converted.add(issueConverter.fromJiraToApp(issue, requestedFields));
+            }
+        });
+        for (Map.Entry<Integer, Json> issue : pending.entrySet()) {
+            converted.set(issue.getKey(), issueConverter.fromJiraToApp(issue.getValue(), requestedFields));
+        }
+        final Json items = Json.list();
+        for (Json item : converted) {
+            items.push(item);
+        }
+        return Json.map()
+                .set("total", result.integer("total"))
+                .set("items", items);
+    }
+
+    /**
+     * find all issues matching a JQL query, sending them to the app in chunks through the
+     * 'issuesFound' event
+     */
+    @EndpointFunction
+    public Json findAllIssues(Json params){
+        final String searchId = UUID.randomUUID().toString();
+        final String query = params.string("query");
+        final int chunkSize = params.isEmpty("chunkSize") ? DEFAULT_CHUNK_SIZE : params.integer("chunkSize");
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+        final int parallelism = params.isEmpty("parallelism") ? intProperty(searchParallelism, DEFAULT_SEARCH_PARALLELISM) : params.integer("parallelism");
+        final Set<String> requestedFields = IssueConverter.requestedFields(params);
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger chunks = new AtomicInteger();
+        jiraApi.findAllIssues(params, parallelism, page -> {
+            final Json result = issueConverter.searchResultFromJiraToApp(page, requestedFields);
+            total.set(result.integer("total"));
+            final List<Json> items = result.jsons("items");
+            for (int from = 0; from < items.size(); from += chunkSize) {
+                final int to = Math.min(from + chunkSize, items.size());
+                final Json chunk = Json.list();
+                for (Json item : items.subList(from, to)) {
+                    chunk.push(item);
+                }
+                events().send("issuesFound", Json.map()
+                        .set("searchId", searchId)
+                        .set("query", query)
+                        .set("chunk", chunks.getAndIncrement())
+                        .set("offset", count.getAndAdd(to - from))
+                        .set("total", total.get())
+                        .set("items", chunk)
+                );
+            }
+        });
+        logger.info(String.format("Search [%s] sent [%d] issues in [%d] chunks", searchId, count.get(), chunks.get()));
+        return Json.map()
+                .set("searchId", searchId)
+                .set("query", query)
+                .set("total", total.get())
+                .set("count", count.get())
+                .set("chunks", chunks.get());
     }
 
     /**
-     * find issue
+     * sends the issues updated since the last sync with the same id, in the order they were
+     * updated, through the 'issuesSynced' event
+     */
+    @EndpointFunction
+    public Json syncIssues(Json params){
+        final String syncId = params.string("syncId");
+        final Set<String> requestedFields = IssueConverter.requestedFields(params);
+        final AtomicInteger chunks = new AtomicInteger();
+        final Json result = deltaSync.sync(syncId, params, issues -> {
+            final Json items = Json.list();
+            for (Json issue : issues) {
+                items.push(issueConverter.fromJiraToApp(issue, requestedFields));
+            }
+            events().send("issuesSynced", Json.map()
+                    .set("syncId", syncId)
+                    .set("chunk", chunks.getAndIncrement())
+                    .set("items", items)
+            );
+        });
+        return result.set("chunks", chunks.get());
+    }
+
+    /**
+     * find issue; if 'includeTransitions' is true, the available transitions are fetched at the
+     * same time as the issue
      */
     @EndpointFunction
     public Json findIssue(Json params){
-        final Json issue = jiraApi.findIssue(params);
-        return issueConverter.fromJiraToApp(issue);
+        if (params.bool("includeTransitions", false)) {
+            final CompletableFuture<Json> issue = jiraApi.findIssueAsync(params);
+            final CompletableFuture<Json> transitions = jiraApi.findValidTransitionsAsync(params.string("key"));
+            return JiraApi.await(issue.thenCombine(transitions, (jiraIssue, validTransitions) ->
+                    issueConverter.fromJiraToApp(jiraIssue, IssueConverter.requestedFields(params))
+                            .set("transitions", issueConverter.transitionsFromJiraToApp(validTransitions))
+            ));
+        }
+        final String key = params.string("key");
+        final boolean cacheable = !params.isEmpty("key") && params.isEmpty("fields") && params.isEmpty("expand");
+        if (cacheable) {
+            final Json cachedIssue = issueCache.get(key);
+            if (cachedIssue != null) {
+                return cachedIssue;
+            }
+        }
+        final long cacheToken = issueCache.startLoad();
+        final Json jiraIssue = jiraApi.findIssue(params);
+        final Json issue = issueConverter.fromJiraToApp(jiraIssue, IssueConverter.requestedFields(params));
+        if (cacheable) {
+            issueCache.put(issue, cacheToken);
+        }
+        return issue;
+    }
+
+    /**
+     * find many issues by key; issues are returned in the same order as the keys and the keys
+     * of issues that couldn't be found are returned in 'notFound'
+     */
+    @EndpointFunction
+    public Json findIssuesByKeys(Json params){
+        if (params.isEmpty("keys")) {
+            throw new IllegalArgumentException("You need to specify keys");
+        }
+        final List<String> keys = params.strings("keys");
+        final Map<String, Json> issues = jiraApi.findIssuesByKeys(keys, params);
+        final Set<String> requestedFields = IssueConverter.requestedFields(params);
+        final Json items = Json.list();
+        final Json notFound = Json.list();
+        for (String key : keys) {
+            final Json issue = issues.get(key);
+            if (issue != null) {
+                items.push(issueConverter.fromJiraToApp(issue, requestedFields));
+            } else {
+                notFound.push(key);
+            }
+        }
+        return Json.map()
+                .set("items", items)
+                .set("notFound", notFound);
     }
 
     /**
-     * create issue
+     * create issue; only the key and id are returned unless 'refetch' is true, in which case the
+     * whole issue is fetched again
      */
     @EndpointFunction
     public Json createIssue(Json params){
         final Json newIssue = issueConverter.fromAppToJira(params);
         final Json createdIssue = jiraApi.createIssue(newIssue);
+        if (!params.bool("refetch", false)) {
+            return issueRef(createdIssue);
+        }
         final Json issue = jiraApi.findIssue(createdIssue);
         return issueConverter.fromJiraToApp(issue);
     }
 
     /**
-     * update issue
+     * create many issues using the bulk API; a result is returned for each issue in the same order
+     */
+    @EndpointFunction
+    public Json createIssues(Json params){
+        if (params.isEmpty("issues")) {
+            throw new IllegalArgumentException("You need to specify issues");
+        }
+        final List<Json> issues = params.jsons("issues");
+        final Json[] results = new Json[issues.size()];
+        final List<Json> newIssues = new ArrayList<>();
+        final List<Integer> newIssuesIndexes = new ArrayList<>();
+        for (int i = 0; i < issues.size(); i++) {
+            try {
+                newIssues.add(issueConverter.fromAppToJira(issues.get(i)));
+                newIssuesIndexes.add(i);
+            } catch (Exception e) {
+                results[i] = Json.map()
+                        .set("index", i)
+                        .set("success", false)
+                        .set("errorMessages", Json.list().push(String.format("Invalid issue: %s", e.getMessage())));
+            }
+        }
+        final List<Json> createdIssues = jiraApi.createIssues(newIssues);
+        for (int i = 0; i < createdIssues.size(); i++) {
+            final int index = newIssuesIndexes.get(i);
+            results[index] = createdIssues.get(i).set("index", index);
+        }
+        int created = 0;
+        final Json list = Json.list();
+        for (Json result : results) {
+            if (result.bool("success", false)) {
+                created++;
+            }
+            list.push(result);
+        }
+        return Json.map()
+                .set("created", created)
+                .set("failed", results.length - created)
+                .set("results", list);
+    }
+
+    /**
+     * update issue; only the key is returned unless 'refetch' is true, in which case the whole
+     * issue is fetched again
      */
     @EndpointFunction
     public Json updateIssue(Json params){
         final Json newIssue = issueConverter.fromAppToJira(params);
         final Json updatedIssue = jiraApi.updateIssue(newIssue);
+        issueCache.invalidate(updatedIssue.string("key"));
+        if (!params.bool("refetch", false)) {
+            return issueRef(updatedIssue);
+        }
         final Json issue = jiraApi.findIssue(updatedIssue);
         return issueConverter.fromJiraToApp(issue);
     }
@@ -105,27 +451,132 @@ public class JiraEndpoint extends Endpoint {
     public Json addComment(Json params){
         final Json newComment = issueConverter.commentFromAppToJira(params);
         final Json comment = jiraApi.addComment(newComment);
+        issueCache.invalidate(newComment.string("issueKey"));
         return issueConverter.commentFromJiraToApp(comment);
     }
 
     /**
-     * do transition on issue
+     * do transition on issue; only the key, the transition and the new status are returned unless
+     * 'refetch' is true, in which case the whole issue is fetched again
      */
     @EndpointFunction
     public Json doTransition(Json params){
         final Json transition = jiraApi.doTransition(params);
-        return issueConverter.fromJiraToApp(transition);
+        issueCache.invalidate(transition.string("key"));
+        if (!params.bool("refetch", false)) {
+            return issueConverter.transitionFromJiraToApp(transition);
+        }
+        final Json issue = jiraApi.findIssue(Json.map().set("key", transition.string("key")));
+        return issueConverter.fromJiraToApp(issue);
     }
 
-    // TODO add work log to issue
-    // TODO attach file to issue
+    /**
+     * add many work logs, possibly to different issues; a result is returned for each work log
+     * in the same order
+     */
+    @EndpointFunction
+    public Json addWorkLogs(Json params){
+        if (params.isEmpty("workLogs")) {
+            throw new IllegalArgumentException("You need to specify work logs");
+        }
+        final int parallelism = params.isEmpty("parallelism") ? DEFAULT_WORK_LOGS_PARALLELISM : params.integer("parallelism");
+        final List<Json> workLogs = params.jsons("workLogs");
+        final Json[] results = new Json[workLogs.size()];
+        final List<Json> newWorkLogs = new ArrayList<>();
+        final List<Integer> newWorkLogsIndexes = new ArrayList<>();
+        for (int i = 0; i < workLogs.size(); i++) {
+            try {
+                newWorkLogs.add(issueConverter.workLogFromAppToJira(workLogs.get(i)));
+                newWorkLogsIndexes.add(i);
+            } catch (Exception e) {
+                results[i] = Json.map()
+                        .set("index", i)
+                        .set("issueKey", workLogs.get(i).string("issueKey"))
+                        .set("success", false)
+                        .set("errorMessages", Json.list().push(String.format("Invalid work log: %s", e.getMessage())));
+            }
+        }
+        final List<Json> addedWorkLogs = jiraApi.addWorkLogs(newWorkLogs, parallelism);
+        for (int i = 0; i < addedWorkLogs.size(); i++) {
+            final int index = newWorkLogsIndexes.get(i);
+            results[index] = addedWorkLogs.get(i).set("index", index);
+            // time tracking of the issue changed
+            issueCache.invalidate(results[index].string("issueKey"));
+        }
+        int added = 0;
+        final Json list = Json.list();
+        for (Json result : results) {
+            if (result.bool("success", false)) {
+                added++;
+            }
+            list.push(result);
+        }
+        return Json.map()
+                .set("added", added)
+                .set("failed", results.length - added)
+                .set("results", list);
+    }
+
+    /**
+     * attach file to issue; the file is streamed from the app to JIRA, so it is never fully in memory
+     */
+    @EndpointFunction
+    public Json attachFile(Json params){
+        final String issueKey = params.string("issueKey");
+        final String fileId = params.string("fileId");
+        if (StringUtils.isBlank(issueKey)) {
+            throw new IllegalArgumentException("You need to specify the issue key");
+        }
+        if (StringUtils.isBlank(fileId)) {
+            throw new IllegalArgumentException("You need to specify the file id");
+        }
+        final Json metadata = files().metadata(fileId);
+        final String fileName = params.string("fileName", metadata.string("fileName"));
+        final String contentType = params.string("contentType", metadata.string("contentType"));
+        final DownloadedFile file = files().download(fileId);
+        final Json res;
+        try (InputStream content = file.getFile()) {
+            res = jiraApi.attachFile(issueKey, fileName, contentType, content);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Error reading file [%s]", fileId), e);
+        }
+        issueCache.invalidate(issueKey);
+        final Json attachments = Json.list();
+        for (Json attachment : res.jsons("attachments")) {
+            attachments.push(issueConverter.attachmentFromJiraToApp(attachment));
+        }
+        return Json.map()
+                .set("issueKey", issueKey)
+                .set("attachments", attachments)
+                .set("size", res.object("size"))
+                .set("checksum", res.string("checksum"));
+    }
+
+    /**
+     * download the content of an attachment into a file of the app; the content is streamed from
+     * JIRA to the app, so it is never fully in memory
+     */
+    @EndpointFunction
+    public Json downloadAttachment(Json params){
+        final String attachmentId = params.string("attachmentId");
+        if (StringUtils.isBlank(attachmentId)) {
+            throw new IllegalArgumentException("You need to specify the attachment id");
+        }
+        return jiraApi.downloadAttachment(attachmentId, (attachment, content) -> Json.map()
+                .set("attachment", issueConverter.attachmentFromJiraToApp(attachment))
+                .set("file", files().upload(attachment.string("filename"), content, attachment.string("mimeType")))
+        );
+    }
 
     /**
      * delete issue
      */
     @EndpointFunction
     public Json deleteIssue(Json params){
-        return jiraApi.deleteIssue(params);
+        final Json res = jiraApi.deleteIssue(params);
+        issueCache.invalidate(params.string("key"));
+        jiraApi.issueDeleted(params.string("key"));
+        return res;
     }
 
     /**
@@ -136,16 +587,33 @@ public class JiraEndpoint extends Endpoint {
         return jiraApi.serverInfo(params);
     }
 
+    /**
+     * get statistics of the connections to JIRA
+     */
+    @EndpointFunction
+    public Json connectionStats(Json params){
+        return jiraApi.getConnectionPool().toJson()
+                .set("rateLimits", jiraApi.getRateLimiter().toJson())
+                .set("issueCache", issueCache.toJson())
+                .set("conditionalGets", jiraApi.getConditionalGets().toJson())
+                .set("compression", jiraApi.getCompression().toJson())
+                .set("bulkheads", jiraApi.bulkheadsToJson())
+                .set("circuitBreaker", jiraApi.getCircuitBreaker().toJson())
+                .set("fieldsCache", fieldsCache.toJson());
+    }
+
     @EndpointWebService(methods = RestMethod.POST)
     public Json jiraWebhooks(Json request){
         logger.info("Event arrived");
 
         final String user = jiraEvents.detectUser(request);
+        final String eventType = jiraEvents.detectEvent(request);
+        // local information about issues has to be updated even with changes done by the endpoint
+        updateCachedIssue(eventType, request);
         if(!username.equals(user)){
             // we filter events coming from the endpoint user
             logger.info("Event not from endpoint");
 
-            final String eventType = jiraEvents.detectEvent(request);
             switch (eventType){
                 case "issue-created": {
                     // issue created event
@@ -200,4 +668,54 @@ public class JiraEndpoint extends Endpoint {
         }
         return Json.map().set("status", "ok");
     }
+
+    private void updateCachedIssue(String eventType, Json request) {
+        if (request.isEmpty("issue")) {
+            return;
+        }
+        final String key = request.json("issue").string("key");
+        switch (eventType) {
+            case "issue-created":
+            case "issue-updated":
+            case "comment-created":
+                invalidateCachedIssue(request.json("issue"));
+                jiraApi.issueUpdated(request.json("issue"));
+                break;
+            case "issue-deleted":
+                invalidateCachedIssue(request.json("issue"));
+                jiraApi.issueDeleted(key);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void invalidateCachedIssue(Json jiraIssue) {
+        issueCache.invalidate(jiraIssue.string("key"));
+        // the key changes when the issue is moved to another project, but the id doesn't
+        if (!jiraIssue.isEmpty("id")) {
+            issueCache.invalidate(jiraIssue.string("id"));
+        }
+    }
+
+    private Json issueRef(Json writeResult) {
+        final Json ref = Json.map();
+        if (!writeResult.isEmpty("id")) {
+            ref.set("id", writeResult.string("id"));
+        }
+        ref.set("key", writeResult.string("key"));
+        return ref;
+    }
+
+    private int intProperty(String value, int defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn(String.format("Invalid number [%s] in configuration, using default value [%d]", value, defaultValue));
+            return defaultValue;
+        }
+    }
 }
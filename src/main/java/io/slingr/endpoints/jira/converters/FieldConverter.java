@@ -0,0 +1,26 @@
+package io.slingr.endpoints.jira.converters;
+
+/**
+ * Converts the value of a field from one format to the other. Converters are resolved once per
+ * field (when fields are loaded in the cache) so converting a value doesn't need to check the
+ * type of the field again.
+ */
+@FunctionalInterface
+public interface FieldConverter {
+    FieldConverter IDENTITY = value -> value;
+
+    /**
+     * @param value the value to convert; it can be null
+     * @return the converted value
+     */
+    Object convert(Object value);
+
+    /**
+     * Creates the converters for a field based on its type.
+     */
+    interface Factory {
+        FieldConverter toApp(String type, boolean array);
+
+        FieldConverter toJira(String type, boolean array);
+    }
+}
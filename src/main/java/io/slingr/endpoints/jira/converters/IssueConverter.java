@@ -1,10 +1,17 @@
 package io.slingr.endpoints.jira.converters;
 
 import io.slingr.endpoints.jira.services.FieldsCache;
+import io.slingr.endpoints.jira.services.JiraApi;
+import io.slingr.endpoints.jira.services.ProjectsCache;
 import io.slingr.endpoints.utils.Json;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Converts between the different formats for an issue.
@@ -13,9 +20,16 @@ import java.util.List;
  */
 public class IssueConverter {
     private FieldsCache fieldsCache;
+    private ProjectsCache projectsCache;
+    private final Map<String, FieldConverter> appConverters = new HashMap<>();
+    private final Map<String, FieldConverter> jiraConverters = new HashMap<>();
 
-    public IssueConverter(FieldsCache fieldsCache) {
+    public IssueConverter(FieldsCache fieldsCache, ProjectsCache projectsCache) {
         this.fieldsCache = fieldsCache;
+        this.projectsCache = projectsCache;
+        initConverters();
+        // custom fields get their converters resolved once when they are loaded in the cache
+        fieldsCache.setConverterFactory(new CustomFieldConverters());
     }
 
     /**
@@ -25,6 +39,17 @@ public class IssueConverter {
      * @return the list of issues in application format
      */
     public Json searchResultFromJiraToApp(Json searchResult) {
+        return searchResultFromJiraToApp(searchResult, null);
+    }
+
+    /**
+     * Converts each issue from the search result using {@link #fromJiraToApp(Json, Set)}.
+     *
+     * @param searchResult the result of a query to JIRA
+     * @param requestedFields the JIRA fields requested in the query, or null if all were requested
+     * @return the list of issues in application format
+     */
+    public Json searchResultFromJiraToApp(Json searchResult, Set<String> requestedFields) {
         if (searchResult == null) {
             return null;
         }
@@ -32,7 +57,7 @@ public class IssueConverter {
         json.set("total", searchResult.integer("total"));
         Json list = Json.list();
         for (Json issue : searchResult.jsons("issues")) {
-            list.push(fromJiraToApp(issue));
+            list.push(fromJiraToApp(issue, requestedFields));
         }
         json.set("items", list);
         return json;
@@ -46,85 +71,164 @@ public class IssueConverter {
      * @return the JSON of the issue for application
      */
     public Json fromJiraToApp(Json jiraIssue) {
+        return fromJiraToApp(jiraIssue, null);
+    }
+
+    /**
+     * Same as {@link #fromJiraToApp(Json)}, but only the sections of the requested fields are
+     * converted. This way, when only a few fields were fetched from JIRA, we don't fill the issue
+     * with defaults for everything else.
+     *
+     * @param jiraIssue the JSON of the issue comming from JIRA
+     * @param requestedFields the JIRA fields requested, or null to convert everything
+     * @return the JSON of the issue for application
+     */
+    public Json fromJiraToApp(Json jiraIssue, Set<String> requestedFields) {
+        final Predicate<String> requested = field -> requestedFields == null || requestedFields.contains(field);
         Json issue = Json.map();
         issue.set("id", jiraIssue.string("id"));
         issue.set("key", jiraIssue.string("key"));
         Json fields = jiraIssue.json("fields");
-        issue.set("issueType", convertFieldValueToApp(fields.json("issuetype"), "issuetype"));
-        if (fields.contains("issuetype") && fields.json("issuetype").bool("subtask", false)) {
-            issue.set("subTask", true);
-        } else {
-            issue.set("subTask", false);
-        }
-        issue.set("project", convertFieldValueToApp(fields.json("project"), "project"));
-        issue.set("timeSpent", TimeUtils.parseSeconds(fields.integer("timespent")));
-        issue.set("aggregateTimeSpent", TimeUtils.parseSeconds(fields.integer("aggregatetimespent")));
-        issue.set("timeEstimate", TimeUtils.parseSeconds(fields.integer("timeestimate")));
-        issue.set("aggregateTimeEstimate", TimeUtils.parseSeconds(fields.integer("aggregatetimeestimate")));
-        issue.set("timeOriginalEstimate", TimeUtils.parseSeconds(fields.integer("timeoriginalestimate")));
-        issue.set("aggregateOriginalTimeEstimate", TimeUtils.parseSeconds(fields.integer("aggregateoriginaltimeestimate")));
-        if (fields.contains("timetracking")) {
-            issue.set("remainingEstimate", TimeUtils.parseSeconds(fields.json("timetracking").integer("remainingEstimateSeconds")));
-        } else {
-            issue.set("remainingEstimate", 0l);
-        }
-        if (fields.contains("progress")) {
-            Integer percent = fields.json("progress").integer("percent");
-            if (percent == null) percent = 0;
-            issue.set("progress", Json.map()
-                    .set("progress", TimeUtils.parseSeconds(fields.json("progress").integer("progress")))
-                    .set("total", TimeUtils.parseSeconds(fields.json("progress").integer("total")))
-                    .set("percent", new BigDecimal(percent).divide(BigDecimal.valueOf(100)))
-            );
-        } else {
-            issue.set("progress", Json.map()
-                            .set("progress", 0l)
-                            .set("total", 0l)
-                            .set("percent", 0l)
-            );
-        }
-        if (fields.contains("aggregateprogress")) {
-            Integer percent = fields.json("aggregateprogress").integer("percent");
-            if (percent == null) percent = 0;
-            issue.set("aggregateProgress", Json.map()
-                            .set("progress", TimeUtils.parseSeconds(fields.json("aggregateprogress").integer("progress")))
-                            .set("total", TimeUtils.parseSeconds(fields.json("aggregateprogress").integer("total")))
-                            .set("percent", new BigDecimal(percent).divide(BigDecimal.valueOf(100)))
-            );
-        } else {
-            issue.set("aggregateProgress", Json.map()
-                            .set("progress", 0l)
-                            .set("total", 0l)
-                            .set("percent", 0l)
-            );
-        }
-        issue.set("versions", convertManyFieldValueToApp(fields.jsons("versions"), "version"));
-        issue.set("fixVersions", convertManyFieldValueToApp(fields.jsons("fixVersions"), "version"));
-        issue.set("status", convertFieldValueToApp(fields.json("status"), "status"));
-        issue.set("created", TimeUtils.parseJiraDate(fields.string("created")));
-        issue.set("updated", TimeUtils.parseJiraDate(fields.string("updated")));
-        issue.set("dueDate", fields.string("duedate"));
-        issue.set("resolution", convertFieldValueToApp(fields.json("resolution"), "resolution"));
-        issue.set("resolutionDate", TimeUtils.parseJiraDate(fields.string("resolutiondate")));
-        issue.set("priority", convertFieldValueToApp(fields.json("priority"), "priority"));
-        issue.set("labels", fields.objects("labels"));
-        issue.set("issueLinks", issueLinks(fields.jsons("issuelinks")));
-        issue.set("components", convertManyFieldValueToApp(fields.jsons("components"), "component"));
-        issue.set("environment", fields.string("environment"));
-        if (fields.contains("votes")) {
-            issue.set("votes", fields.json("votes").integer("votes"));
-        } else {
-            issue.set("votes", 0);
-        }
-        issue.set("assignee", convertFieldValueToApp(fields.json("assignee"), "user"));
-        issue.set("reporter", convertFieldValueToApp(fields.json("assignee"), "user"));
-        issue.set("creator", convertFieldValueToApp(fields.json("assignee"), "user"));
-        issue.set("summary", fields.string("summary"));
-        issue.set("descriptionHtml", TextConverter.convertWikiToHtml(fields.string("description")));
-        issue.set("descriptionText", TextConverter.convertWikiToText(fields.string("description")));
-        issue.set("descriptionWiki", fields.string("description"));
-        issue.set("parent", issueRef(fields.json("parent")));
-        issue.set("subTasks", issueRefs(fields.jsons("subtasks")));
+        if (requested.test("issuetype")) {
+            issue.set("issueType", convertFieldValueToApp(fields.json("issuetype"), "issuetype"));
+            if (fields.contains("issuetype") && fields.json("issuetype").bool("subtask", false)) {
+                issue.set("subTask", true);
+            } else {
+                issue.set("subTask", false);
+            }
+        }
+        if (requested.test("project")) {
+            issue.set("project", convertFieldValueToApp(fields.json("project"), "project"));
+        }
+        if (requested.test("timespent")) {
+            issue.set("timeSpent", TimeUtils.parseSeconds(fields.integer("timespent")));
+        }
+        if (requested.test("aggregatetimespent")) {
+            issue.set("aggregateTimeSpent", TimeUtils.parseSeconds(fields.integer("aggregatetimespent")));
+        }
+        if (requested.test("timeestimate")) {
+            issue.set("timeEstimate", TimeUtils.parseSeconds(fields.integer("timeestimate")));
+        }
+        if (requested.test("aggregatetimeestimate")) {
+            issue.set("aggregateTimeEstimate", TimeUtils.parseSeconds(fields.integer("aggregatetimeestimate")));
+        }
+        if (requested.test("timeoriginalestimate")) {
+            issue.set("timeOriginalEstimate", TimeUtils.parseSeconds(fields.integer("timeoriginalestimate")));
+        }
+        if (requested.test("aggregatetimeoriginalestimate")) {
+            issue.set("aggregateOriginalTimeEstimate", TimeUtils.parseSeconds(fields.integer("aggregatetimeoriginalestimate")));
+        }
+        if (requested.test("timetracking")) {
+            if (fields.contains("timetracking")) {
+                issue.set("remainingEstimate", TimeUtils.parseSeconds(fields.json("timetracking").integer("remainingEstimateSeconds")));
+            } else {
+                issue.set("remainingEstimate", 0l);
+            }
+        }
+        if (requested.test("progress")) {
+            if (fields.contains("progress")) {
+                Integer percent = fields.json("progress").integer("percent");
+                if (percent == null) percent = 0;
+                issue.set("progress", Json.map()
+                        .set("progress", TimeUtils.parseSeconds(fields.json("progress").integer("progress")))
+                        .set("total", TimeUtils.parseSeconds(fields.json("progress").integer("total")))
+                        .set("percent", new BigDecimal(percent).divide(BigDecimal.valueOf(100)))
+                );
+            } else {
+                issue.set("progress", Json.map()
+                                .set("progress", 0l)
+                                .set("total", 0l)
+                                .set("percent", 0l)
+                );
+            }
+        }
+        if (requested.test("aggregateprogress")) {
+            if (fields.contains("aggregateprogress")) {
+                Integer percent = fields.json("aggregateprogress").integer("percent");
+                if (percent == null) percent = 0;
+                issue.set("aggregateProgress", Json.map()
+                                .set("progress", TimeUtils.parseSeconds(fields.json("aggregateprogress").integer("progress")))
+                                .set("total", TimeUtils.parseSeconds(fields.json("aggregateprogress").integer("total")))
+                                .set("percent", new BigDecimal(percent).divide(BigDecimal.valueOf(100)))
+                );
+            } else {
+                issue.set("aggregateProgress", Json.map()
+                                .set("progress", 0l)
+                                .set("total", 0l)
+                                .set("percent", 0l)
+                );
+            }
+        }
+        if (requested.test("versions")) {
+            issue.set("versions", convertManyFieldValueToApp(fields.jsons("versions"), "version"));
+        }
+        if (requested.test("fixVersions")) {
+            issue.set("fixVersions", convertManyFieldValueToApp(fields.jsons("fixVersions"), "version"));
+        }
+        if (requested.test("status")) {
+            issue.set("status", convertFieldValueToApp(fields.json("status"), "status"));
+        }
+        if (requested.test("created")) {
+            issue.set("created", TimeUtils.parseJiraDate(fields.string("created")));
+        }
+        if (requested.test("updated")) {
+            issue.set("updated", TimeUtils.parseJiraDate(fields.string("updated")));
+        }
+        if (requested.test("duedate")) {
+            issue.set("dueDate", fields.string("duedate"));
+        }
+        if (requested.test("resolution")) {
+            issue.set("resolution", convertFieldValueToApp(fields.json("resolution"), "resolution"));
+        }
+        if (requested.test("resolutiondate")) {
+            issue.set("resolutionDate", TimeUtils.parseJiraDate(fields.string("resolutiondate")));
+        }
+        if (requested.test("priority")) {
+            issue.set("priority", convertFieldValueToApp(fields.json("priority"), "priority"));
+        }
+        if (requested.test("labels")) {
+            issue.set("labels", fields.objects("labels"));
+        }
+        if (requested.test("issuelinks")) {
+            issue.set("issueLinks", issueLinks(fields.jsons("issuelinks")));
+        }
+        if (requested.test("components")) {
+            issue.set("components", convertManyFieldValueToApp(fields.jsons("components"), "component"));
+        }
+        if (requested.test("environment")) {
+            issue.set("environment", fields.string("environment"));
+        }
+        if (requested.test("votes")) {
+            if (fields.contains("votes")) {
+                issue.set("votes", fields.json("votes").integer("votes"));
+            } else {
+                issue.set("votes", 0);
+            }
+        }
+        if (requested.test("assignee")) {
+            issue.set("assignee", convertFieldValueToApp(fields.json("assignee"), "user"));
+        }
+        if (requested.test("reporter")) {
+            issue.set("reporter", convertFieldValueToApp(fields.json("reporter"), "user"));
+        }
+        if (requested.test("creator")) {
+            issue.set("creator", convertFieldValueToApp(fields.json("creator"), "user"));
+        }
+        if (requested.test("summary")) {
+            issue.set("summary", fields.string("summary"));
+        }
+        if (requested.test("description")) {
+            issue.set("descriptionHtml", TextConverter.convertWikiToHtml(fields.string("description")));
+            issue.set("descriptionText", TextConverter.convertWikiToText(fields.string("description")));
+            issue.set("descriptionWiki", fields.string("description"));
+        }
+        if (requested.test("parent")) {
+            issue.set("parent", issueRef(fields.json("parent")));
+        }
+        if (requested.test("subtasks")) {
+            issue.set("subTasks", issueRefs(fields.jsons("subtasks")));
+        }
+        // custom fields not requested are not sent by JIRA, so there is no need to filter them
         issue.set("customFields", getCustomFields(fields));
         if (fields.contains("comment") && fields.json("comment").contains("comments")) {
             Json comments = Json.list();
@@ -150,6 +254,31 @@ public class IssueConverter {
         return issue;
     }
 
+    /**
+     * Parses the 'fields' parameter of a query, which could be a list or a comma-separated string
+     * of JIRA field ids. Returns null when all fields are requested, which includes special values
+     * like '*all' or '*navigable' and exclusions like '-comment', as in those cases we cannot know
+     * the exact list of fields beforehand.
+     *
+     * @param params the params of the query
+     * @return the set of requested fields or null if everything should be converted
+     */
+    public static Set<String> requestedFields(Json params) {
+        String fields = JiraApi.listParam(params, "fields");
+        if (fields == null) {
+            return null;
+        }
+        Set<String> requestedFields = new HashSet<>();
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (field.startsWith("*") || field.startsWith("-")) {
+                return null;
+            }
+            requestedFields.add(field);
+        }
+        return requestedFields;
+    }
+
     /**
      * Converts an issue from application edit/create format to JIRA format.
      *
@@ -163,7 +292,7 @@ public class IssueConverter {
             issue.set("key", i2Issue.string("key"));
         }
         if (i2Issue.contains("project")) {
-            fields.set("project", Json.map().set("key", i2Issue.string("project")));
+            fields.set("project", projectRef(i2Issue.string("project")));
         }
         if (i2Issue.contains("issueType")) {
             fields.set("issuetype", Json.map().set("name", i2Issue.string("issueType")));
@@ -214,14 +343,9 @@ public class IssueConverter {
         }
         // find custom fields and convert them
         for (String key : i2Issue.keys()) {
-            String customFieldId = fieldsCache.getCustomFieldId(key);
-            if (customFieldId != null) {
-                String type = fieldsCache.getCustomFieldType(customFieldId);
-                if (fieldsCache.isCustomFieldArray(customFieldId)) {
-                    fields.set(customFieldId, convertManyFieldValueToJira(i2Issue.object(key), type));
-                } else {
-                    fields.set(customFieldId, convertFieldValueToJira(i2Issue.object(key), type));
-                }
+            FieldsCache.Field customField = fieldsCache.getFieldByName(key);
+            if (customField != null) {
+                fields.set(customField.getId(), customField.convertToJira(i2Issue.object(key)));
             }
         }
         issue.set("fields", fields);
@@ -285,6 +409,52 @@ public class IssueConverter {
         return worklog;
     }
 
+    /**
+     * Converts a work log in application format to JIRA format (for adding). This is the inverse
+     * of {@link #workLogFromJiraToApp(Json)}: 'timeSpent' is in milliseconds, 'started' can be a
+     * timestamp in milliseconds or a date in JIRA format and the comment can come in text, HTML
+     * or wiki format as indicated by 'commentFormat'.
+     *
+     * @param i2WorkLog work log in application
+     * @return the work log to be added to JIRA, with the key of the issue in 'issueKey'
+     */
+    public Json workLogFromAppToJira(Json i2WorkLog) {
+        if (i2WorkLog.isEmpty("issueKey")) {
+            throw new IllegalArgumentException("Issue key is required");
+        }
+        Object timeSpent = i2WorkLog.object("timeSpent");
+        if (!(timeSpent instanceof Number) || ((Number) timeSpent).longValue() < 1000) {
+            throw new IllegalArgumentException("Time spent must be a number of milliseconds of at least one second");
+        }
+        Json worklog = Json.map()
+                .set("issueKey", i2WorkLog.string("issueKey"))
+                .set("timeSpentSeconds", ((Number) timeSpent).longValue() / 1000);
+        Object started = i2WorkLog.object("started");
+        if (started instanceof Number) {
+            worklog.set("started", TimeUtils.formatJiraDate(((Number) started).longValue()));
+        } else if (started instanceof String) {
+            if (TimeUtils.parseJiraDate((String) started) == null) {
+                throw new IllegalArgumentException(String.format("Invalid start date [%s]", started));
+            }
+            worklog.set("started", started);
+        } else {
+            worklog.set("started", TimeUtils.formatJiraDate(System.currentTimeMillis()));
+        }
+        if (!i2WorkLog.isEmpty("comment")) {
+            String commentFormat = i2WorkLog.string("commentFormat");
+            String comment;
+            if ("html".equalsIgnoreCase(commentFormat)) {
+                comment = TextConverter.convertHtmlToWiki(i2WorkLog.string("comment"));
+            } else if ("wiki".equalsIgnoreCase(commentFormat)) {
+                comment = i2WorkLog.string("comment");
+            } else {
+                comment = TextConverter.convertTextToWiki(i2WorkLog.string("comment"));
+            }
+            worklog.set("comment", comment);
+        }
+        return worklog;
+    }
+
     /**
      * Converts a attachment reference in JIRA format to more convenient format for application.
      *
@@ -299,20 +469,100 @@ public class IssueConverter {
         attachment.set("filename", jiraAttachment.string("filename"));
         attachment.set("mimeType", jiraAttachment.string("mimeType"));
         attachment.set("size", jiraAttachment.integer("size"));
-        attachment.set("contentUrl", jiraAttachment.integer("contentUrl"));
+        attachment.set("contentUrl", jiraAttachment.string("contentUrl"));
         return attachment;
     }
 
+    /**
+     * Converts the result of a transition to a format more convenient for application, with the
+     * key of the issue, the transition done and the status the issue was moved to.
+     *
+     * @param jiraTransition the key of the issue and the transition in JIRA format
+     * @return the JSON of the transition for application
+     */
+    public Json transitionFromJiraToApp(Json jiraTransition) {
+        Json transition = Json.map();
+        transition.set("key", jiraTransition.string("key"));
+        Json jiraTransitionInfo = jiraTransition.json("transition");
+        transition.set("transition", convertEnum(jiraTransitionInfo));
+        transition.set("status", convertFieldValueToApp(jiraTransitionInfo.json("to"), "status"));
+        return transition;
+    }
+
+    /**
+     * Converts the available transitions of an issue to a format more convenient for application.
+     *
+     * @param validTransitions the transitions as returned by JIRA
+     * @return the list of transitions with the status each of them moves the issue to
+     */
+    public Json transitionsFromJiraToApp(Json validTransitions) {
+        Json transitions = Json.list();
+        if (validTransitions != null && validTransitions.contains("transitions")) {
+            for (Json jiraTransition : validTransitions.jsons("transitions")) {
+                transitions.push(convertEnum(jiraTransition)
+                        .set("status", convertFieldValueToApp(jiraTransition.json("to"), "status")));
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     * Checks if converting the issue could need to call JIRA, because it has custom fields or
+     * projects that aren't in the caches yet. Fields we already know that don't exist in JIRA
+     * don't count, as they won't be looked for again. This is important when the issue is converted
+     * while the response of a search is being read, as calling JIRA at that moment would need
+     * another slot while the search is still holding its own.
+     *
+     * @param jiraIssue the JSON of the JIRA issue
+     * @return true if some field of the issue isn't in the caches
+     */
+    public boolean needsLookups(Json jiraIssue) {
+        if (jiraIssue.isEmpty("fields")) {
+            return false;
+        }
+        Json fields = jiraIssue.json("fields");
+        for (String key : fields.keys()) {
+            if ("project".equals(key)) {
+                if (isUnknownProject(fields.object(key))) {
+                    return true;
+                }
+            } else if (key.startsWith("customfield_")) {
+                FieldsCache.Field customField = fieldsCache.getCachedField(key);
+                if (customField == null) {
+                    if (fieldsCache.wouldRefresh(key)) {
+                        return true;
+                    }
+                } else if ("project".equals(customField.getType()) && isUnknownProject(fields.object(key))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isUnknownProject(Object value) {
+        if (value instanceof Json && ((Json) value).isList()) {
+            for (Object item : ((Json) value).toList()) {
+                if (isUnknownProject(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (!(value instanceof Json)) {
+            return false;
+        }
+        Json project = (Json) value;
+        return project.isEmpty("key") && !project.isEmpty("id") && !projectsCache.isProjectId(project.string("id"));
+    }
+
     private Json getCustomFields(Json issue) {
         Json customFields = Json.map();
         for (String key : issue.keys()) {
             if (key.startsWith("customfield_")) {
-                String customFieldName = fieldsCache.getCustomFieldName(key);
-                String type = fieldsCache.getCustomFieldType(key);
-                if (fieldsCache.isCustomFieldArray(key)) {
-                    customFields.set(customFieldName, convertManyFieldValueToApp(issue.object(key), type));
-                } else {
-                    customFields.set(customFieldName, convertFieldValueToApp(issue.object(key), type));
+                FieldsCache.Field customField = fieldsCache.getField(key);
+                if (customField != null) {
+                    customFields.set(customField.getName(), customField.convertToApp(issue.object(key)));
                 }
             }
         }
@@ -320,108 +570,102 @@ public class IssueConverter {
     }
 
     private Json convertManyFieldValueToApp(Object list, String type) {
+        return convertManyFieldValueToApp(list, appConverter(type));
+    }
+
+    private Json convertManyFieldValueToApp(Object list, FieldConverter converter) {
         if (list == null) {
             return null;
         }
         Json newList = Json.list();
         if (list instanceof Json && ((Json) list).isList()) {
             for (Object item : ((Json) list).toList()) {
-                newList.push(convertFieldValueToApp(item, type));
+                newList.push(converter.convert(item));
             }
         } else if (list instanceof List) {
             for (Object item : (List) list) {
-                newList.push(convertFieldValueToApp(item, type));
+                newList.push(converter.convert(item));
             }
         } else {
             // seems like JIRA sends one value outside a list in some cases, even when the field
             // type is an array
-            newList.push(convertFieldValueToApp(list, type));
+            newList.push(converter.convert(list));
         }
         return newList;
     }
 
-    private Json convertManyFieldValueToJira(Object list, String type) {
+    private Json convertManyFieldValueToJira(Object list, FieldConverter converter) {
         if (list == null) {
             return null;
         }
         Json newList = Json.list();
         if (list instanceof Json && ((Json) list).isList()) {
             for (Object item : ((Json) list).toList()) {
-                newList.push(convertFieldValueToJira(item, type));
+                newList.push(converter.convert(item));
             }
         } else if (list instanceof List) {
             for (Object item : (List) list) {
-                newList.push(convertFieldValueToJira(item, type));
+                newList.push(converter.convert(item));
             }
         }
         return newList;
     }
 
-    private Object convertFieldValueToJira(Object value, String type) {
-        if (value == null) {
-            return null;
-        }
-        switch (type) {
-            case "string":
-            case "number":
-            case "date":
-                return value;
-
-            case "datetime":
-                return TimeUtils.formatJiraDate((Long) value);
+    private Object convertFieldValueToApp(Object value, String type) {
+        return appConverter(type).convert(value);
+    }
 
-            case "user":
-            case "version":
-            case "component":
-            case "priority":
-            case "resolution":
-            case "issuetype":
-            case "status":
-                return Json.map().set("name", value);
+    private FieldConverter appConverter(String type) {
+        FieldConverter converter = type != null ? appConverters.get(type) : null;
+        return converter != null ? converter : FieldConverter.IDENTITY;
+    }
 
-            case "project":
-                return Json.map().set("key", value);
+    private FieldConverter jiraConverter(String type) {
+        FieldConverter converter = type != null ? jiraConverters.get(type) : null;
+        return converter != null ? converter : FieldConverter.IDENTITY;
+    }
 
-            default:
-                return value;
-        }
+    /**
+     * Builds the converters for each type of field. Types not listed here (including string,
+     * number and date) are sent as they are.
+     */
+    private void initConverters() {
+        appConverters.put("datetime", value -> value == null ? null : TimeUtils.parseJiraDate((String) value));
+        appConverters.put("user", value -> convertEnum((Json) value, "key", "emailAddress", "displayName", "active"));
+        appConverters.put("version", value -> convertEnum((Json) value, "archived", "released", "releaseDate"));
+        FieldConverter enumToApp = value -> convertEnum((Json) value);
+        for (String type : new String[]{"component", "priority", "resolution", "issuetype", "status"}) {
+            appConverters.put(type, enumToApp);
+        }
+        appConverters.put("project", value -> projectFromJira((Json) value));
+        appConverters.put("issuelinks", value -> issueRef((Json) value));
+
+        jiraConverters.put("datetime", value -> value == null ? null : TimeUtils.formatJiraDate((Long) value));
+        FieldConverter nameToJira = value -> value == null ? null : Json.map().set("name", value);
+        for (String type : new String[]{"user", "version", "component", "priority", "resolution", "issuetype", "status"}) {
+            jiraConverters.put(type, nameToJira);
+        }
+        jiraConverters.put("project", value -> value == null ? null : projectRef(value.toString()));
     }
 
-    private Object convertFieldValueToApp(Object value, String type) {
+    private Json projectFromJira(Json value) {
         if (value == null) {
             return null;
         }
-        switch (type) {
-            case "string":
-            case "number":
-            case "date":
-                return value;
-
-            case "datetime":
-                return TimeUtils.parseJiraDate((String) value);
-
-            case "user":
-                return convertEnum((Json) value, "key", "emailAddress", "displayName", "active");
-
-            case "version":
-                return convertEnum((Json) value, "archived", "released", "releaseDate");
-
-            case "component":
-            case "priority":
-            case "resolution":
-            case "issuetype":
-            case "status":
-                return convertEnum((Json) value);
-
-            case "project":
-                return convertEnum((Json) value, "key");
-
-            case "issuelinks":
-                return issueRef((Json) value);
+        Json project = convertEnum(value, "key");
+        if (project.isEmpty("key") && !project.isEmpty("id")) {
+            // some references to projects only have the id
+            project.set("key", projectsCache.getProjectKey(project.string("id")));
+        }
+        return project;
+    }
 
-            default:
-                return value;
+    private Json projectRef(String project) {
+        // projects can be referenced by key or id; the key is used unless we know it is an id
+        if (!projectsCache.isProjectKey(project) && projectsCache.isProjectId(project)) {
+            return Json.map().set("id", project);
         }
+        return Json.map().set("key", project);
     }
 
     private Json convertEnum(Json json, String ...  additionalFields) {
@@ -492,4 +736,24 @@ public class IssueConverter {
         }
         return list;
     }
-}
\ No newline at end of file
+
+    private class CustomFieldConverters implements FieldConverter.Factory {
+        @Override
+        public FieldConverter toApp(String type, boolean array) {
+            FieldConverter converter = appConverter(type);
+            if (array) {
+                return value -> convertManyFieldValueToApp(value, converter);
+            }
+            return converter;
+        }
+
+        @Override
+        public FieldConverter toJira(String type, boolean array) {
+            FieldConverter converter = jiraConverter(type);
+            if (array) {
+                return value -> convertManyFieldValueToJira(value, converter);
+            }
+            return converter;
+        }
+    }
+}
@@ -10,16 +10,17 @@ import java.util.Date;
  * Created by dgaviola on 4/6/15.
  */
 public class TimeUtils {
-    private static SimpleDateFormat jiraSdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-    private static SimpleDateFormat versionSdf = new SimpleDateFormat("dd/MMM/yy");
-    private static SimpleDateFormat standardSdf = new SimpleDateFormat("yyyy-MM-dd");
+    // SimpleDateFormat is not thread-safe, so each thread has its own instances
+    private static final ThreadLocal<SimpleDateFormat> jiraSdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ"));
+    private static final ThreadLocal<SimpleDateFormat> versionSdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("dd/MMM/yy"));
+    private static final ThreadLocal<SimpleDateFormat> standardSdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
 
     public static Date parseJiraDate(String text) {
         if (StringUtils.isBlank(text)) {
             return null;
         }
         try {
-            return jiraSdf.parse(text);
+            return jiraSdf.get().parse(text);
         } catch (ParseException e) {
             return null;
         }
@@ -37,8 +38,8 @@ public class TimeUtils {
         if (StringUtils.isBlank(versionDate)) {
             return null;
         }
-        Date date = versionSdf.parse(versionDate);
-        return standardSdf.format(date);
+        Date date = versionSdf.get().parse(versionDate);
+        return standardSdf.get().format(date);
     }
 
     public static String formatJiraDate(Long millis) {
@@ -46,7 +47,7 @@ public class TimeUtils {
             return null;
         }
         Date date = new Date(millis);
-        return jiraSdf.format(date);
+        return jiraSdf.get().format(date);
     }
 }
 
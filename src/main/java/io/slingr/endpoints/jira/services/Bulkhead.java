@@ -0,0 +1,90 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests of one kind (like searches or writes) that can be in progress
+ * at the same time, so when JIRA is slow for one kind of operation the threads waiting for it
+ * don't take all the capacity of the endpoint. Requests that cannot get a slot within the max
+ * wait time are rejected.
+ *
+ * <p>Requests that are part of a longer operation already in progress, like the pages of an
+ * export, can use {@link #withoutMaxWait()} to queue for a slot instead of being rejected, as
+ * failing one of them would fail the whole operation.
+ */
+public class Bulkhead {
+    public static final long DEFAULT_MAX_WAIT = 5000;
+
+    private final String name;
+    private final int maxConcurrency;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicLong rejected;
+    private final Bulkhead withoutMaxWait;
+
+    public Bulkhead(String name, int maxConcurrency, long maxWaitMillis) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(String.format("Max concurrency of [%s] requests must be greater than zero", name));
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.rejected = new AtomicLong();
+        this.withoutMaxWait = new Bulkhead(this);
+    }
+
+    private Bulkhead(Bulkhead bulkhead) {
+        this.name = bulkhead.name;
+        this.maxConcurrency = bulkhead.maxConcurrency;
+        this.maxWaitMillis = -1;
+        this.permits = bulkhead.permits;
+        this.rejected = bulkhead.rejected;
+        this.withoutMaxWait = this;
+    }
+
+    /**
+     * @return a bulkhead that shares the slots of this one, but waits for a slot as long as needed
+     */
+    public Bulkhead withoutMaxWait() {
+        return withoutMaxWait;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Waits for a slot to send a request.
+     *
+     * @throws RuntimeException if there is no slot available within the max wait time
+     */
+    public void acquire() {
+        try {
+            if (maxWaitMillis < 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new RuntimeException(String.format("There are too many [%s] requests to JIRA in progress, try again later", name));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format("Interrupted while waiting to send [%s] request to JIRA", name), e);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public Json toJson() {
+        return Json.map()
+                .set("maxConcurrency", maxConcurrency)
+                .set("inProgress", maxConcurrency - permits.availablePermits())
+                .set("rejected", rejected.get());
+    }
+}
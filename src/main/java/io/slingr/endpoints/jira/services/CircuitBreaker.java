@@ -0,0 +1,169 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.io.IOException;
+
+/**
+ * Stops sending requests to JIRA for a while when it keeps failing, so callers get an error
+ * right away instead of waiting for timeouts. Only server errors (5xx) and connection problems
+ * count as failures; other errors mean JIRA is answering fine.
+ *
+ * <p>After the configured failures in a row the circuit opens and requests are rejected. Once
+ * the open time is over, one request is let through as a probe (half-open): if it works the
+ * circuit closes again, otherwise it stays open for another period.
+ *
+ * <p>Like {@link RateLimiter}, it is registered as a response filter in the REST client. Each
+ * request gets a permit that records its outcome. The permit of the request in progress is
+ * also kept per thread so the filter can find it, and a nested request in the same thread
+ * doesn't overwrite the permit of the outer one.
+ */
+public class CircuitBreaker implements ClientResponseFilter {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_TIME = 30000;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openTimeMillis;
+    private final ThreadLocal<Permit> current = new ThreadLocal<>();
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private boolean probeInFlight = false;
+    private long rejected = 0;
+    private long opened = 0;
+
+    public CircuitBreaker(int failureThreshold, long openTimeMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be greater than zero");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openTimeMillis = openTimeMillis;
+    }
+
+    /**
+     * Checks if a request can be sent to JIRA. Every successful call has to be followed by a call
+     * to {@link #release(Permit, boolean, RuntimeException)} with the returned permit.
+     *
+     * @return the permit of the request
+     * @throws RuntimeException if the circuit is open
+     */
+    public synchronized Permit acquire() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        boolean probe = false;
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            probe = true;
+        } else if (state != State.CLOSED) {
+            rejected++;
+            long seconds = Math.max(1, (openUntil - System.currentTimeMillis() + 999) / 1000);
+            throw new RuntimeException(String.format("JIRA is failing, requests are suspended for about [%d] seconds", seconds));
+        }
+        Permit permit = new Permit(probe, current.get());
+        current.set(permit);
+        return permit;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param permit the permit returned by {@link #acquire()}
+     * @param sent false if the request couldn't be sent at the end, so it doesn't say anything about JIRA
+     * @param error the error of the request, or null if it was successful
+     */
+    public synchronized void release(Permit permit, boolean sent, RuntimeException error) {
+        if (current.get() == permit) {
+            if (permit.outer != null) {
+                current.set(permit.outer);
+            } else {
+                current.remove();
+            }
+        }
+        boolean failed = error != null && (permit.serverError || isConnectionError(error));
+        if (permit.probe) {
+            probeInFlight = false;
+        }
+        if (!sent) {
+            return;
+        }
+        if (failed) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                logger.warn(String.format("JIRA failed [%d] times in a row, requests are suspended for [%d] ms - last error: [%s]",
+                        consecutiveFailures, openTimeMillis, error.getMessage()));
+                state = State.OPEN;
+                openUntil = System.currentTimeMillis() + openTimeMillis;
+                opened++;
+            }
+        } else {
+            if (state != State.CLOSED) {
+                logger.info("JIRA is working again, requests are not suspended anymore");
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) {
+        Permit permit = current.get();
+        if (permit != null && responseContext.getStatus() >= 500) {
+            permit.serverError = true;
+        }
+    }
+
+    public synchronized Json toJson() {
+        return Json.map()
+                .set("state", state.name().toLowerCase())
+                .set("consecutiveFailures", consecutiveFailures)
+                .set("opened", opened)
+                .set("rejected", rejected);
+    }
+
+    private boolean isConnectionError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LocalException) {
+                return false;
+            }
+            if (cause instanceof ProcessingException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An error on our side while doing a request (like reading the file being uploaded), which
+     * doesn't say anything about JIRA, so it isn't counted as a failure.
+     */
+    public static class LocalException extends RuntimeException {
+        public LocalException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Keeps the outcome of one request until it is released.
+     */
+    public static class Permit {
+        private final boolean probe;
+        private final Permit outer;
+        private volatile boolean serverError = false;
+
+        private Permit(boolean probe, Permit outer) {
+            this.probe = probe;
+            this.outer = outer;
+        }
+    }
+}
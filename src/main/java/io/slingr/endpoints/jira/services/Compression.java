@@ -0,0 +1,179 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Asks JIRA for compressed responses and decodes them before they are parsed, so the rest of
+ * the client works with the plain body. Optionally, request bodies bigger than
+ * {@link #MIN_REQUEST_COMPRESSION_SIZE} are sent compressed with gzip.
+ *
+ * <p>It also measures the bytes that go through the wire and the time of each call. The time
+ * goes from the moment the request is sent until the body of the response has been read.
+ */
+public class Compression implements ClientRequestFilter, ClientResponseFilter, WriterInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(Compression.class);
+
+    public static final int MIN_REQUEST_COMPRESSION_SIZE = 16 * 1024;
+    private static final String START_PROPERTY = "jira.compression.start";
+
+    private final boolean compressRequests;
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong transferTimeMillis = new AtomicLong();
+    private final AtomicLong compressedRequests = new AtomicLong();
+    private final AtomicLong requestBytesSaved = new AtomicLong();
+
+    public Compression(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) {
+        if (!requestContext.getHeaders().containsKey("Accept-Encoding")) {
+            requestContext.getHeaders().putSingle("Accept-Encoding", "gzip, deflate");
+        }
+        requestContext.setProperty(START_PROPERTY, System.currentTimeMillis());
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        if (!responseContext.hasEntity()) {
+            return;
+        }
+        String encoding = responseContext.getHeaderString("Content-Encoding");
+        boolean compressed = "gzip".equalsIgnoreCase(encoding) || "deflate".equalsIgnoreCase(encoding);
+        Object start = requestContext.getProperty(START_PROPERTY);
+        String call = requestContext.getMethod() + " " + requestContext.getUri().getPath();
+        CountingInputStream wire = new CountingInputStream(responseContext.getEntityStream(), null);
+        InputStream body = wire;
+        if (compressed) {
+            body = "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(wire) : new InflaterInputStream(wire);
+            responseContext.getHeaders().remove("Content-Encoding");
+            responseContext.getHeaders().remove("Content-Length");
+            compressedResponses.incrementAndGet();
+        }
+        responseContext.setEntityStream(new CountingInputStream(body, bodyCount -> {
+            long millis = start instanceof Long ? System.currentTimeMillis() - (Long) start : 0;
+            responses.incrementAndGet();
+            wireBytes.addAndGet(wire.count);
+            bodyBytes.addAndGet(bodyCount);
+            transferTimeMillis.addAndGet(millis);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Call [%s] transferred [%d] bytes for a body of [%d] bytes in [%d] ms", call, wire.count, bodyCount, millis));
+            }
+        }));
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        boolean multipart = context.getMediaType() != null && "multipart".equalsIgnoreCase(context.getMediaType().getType());
+        // files are streamed, so we cannot hold them in memory to compress them
+        if (!compressRequests || multipart || context.getHeaders().containsKey("Content-Encoding")) {
+            context.proceed();
+            return;
+        }
+        // we need the whole body to know if it is worth compressing it
+        OutputStream os = context.getOutputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        context.setOutputStream(body);
+        context.proceed();
+        if (body.size() < MIN_REQUEST_COMPRESSION_SIZE) {
+            body.writeTo(os);
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.size() / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            body.writeTo(gzip);
+        }
+        context.getHeaders().putSingle("Content-Encoding", "gzip");
+        compressedRequests.incrementAndGet();
+        requestBytesSaved.addAndGet(body.size() - compressed.size());
+        compressed.writeTo(os);
+    }
+
+    public Json toJson() {
+        long responsesCount = responses.get();
+        return Json.map()
+                .set("compressRequests", compressRequests)
+                .set("responses", responsesCount)
+                .set("compressedResponses", compressedResponses.get())
+                .set("wireBytes", wireBytes.get())
+                .set("bodyBytes", bodyBytes.get())
+                .set("averageTransferTime", responsesCount > 0 ? transferTimeMillis.get() / responsesCount : 0)
+                .set("compressedRequests", compressedRequests.get())
+                .set("requestBytesSaved", requestBytesSaved.get());
+    }
+
+    /**
+     * Counts the bytes read and notifies the total when the end of the stream is reached or
+     * the stream is closed, whatever happens first.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongConsumer listener;
+        private long count = 0;
+        private boolean done = false;
+
+        private CountingInputStream(InputStream in, LongConsumer listener) {
+            super(in);
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finished();
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                finished();
+            } else {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finished();
+            super.close();
+        }
+
+        private void finished() {
+            if (!done) {
+                done = true;
+                if (listener != null) {
+                    listener.accept(count);
+                }
+            }
+        }
+    }
+}
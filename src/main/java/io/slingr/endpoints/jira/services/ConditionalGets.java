@@ -0,0 +1,178 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the validators ('ETag' and 'Last-Modified') of the resources of JIRA that are read
+ * very often and don't change much, like fields, projects, transitions and issues, together
+ * with the last body received. Next GETs of those resources are sent as conditional requests
+ * and when JIRA answers that nothing changed (304) the local copy is given back as if it were
+ * a regular response, so the REST client doesn't notice the difference.
+ *
+ * <p>The bodies kept are limited by their total size; the least recently used ones are
+ * removed first when the limit is reached. The body used to send the validators is kept in
+ * the request, so it can be given back even if it is removed before JIRA answers.
+ */
+public class ConditionalGets implements ClientRequestFilter, ClientResponseFilter {
+    public static final long DEFAULT_MAX_TOTAL_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_BODY_SIZE = 2 * 1024 * 1024;
+    private static final String VALIDATED_RESPONSE_PROPERTY = ConditionalGets.class.getName() + ".response";
+    private static final int NOT_MODIFIED = 304;
+    private static final Pattern CACHEABLE_PATHS = Pattern.compile(".*/(field|project(/[^/]+)?|issue/[^/]+(/transitions)?)$");
+
+    private final long maxTotalSize;
+    private final long maxBodySize;
+    private final Map<String, ValidatedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+    private long notModifiedResponses = 0;
+
+    /**
+     * @param maxTotalSize max bytes of the bodies kept; zero or less disables conditional requests
+     */
+    public ConditionalGets(long maxTotalSize) {
+        this.maxTotalSize = maxTotalSize;
+        this.maxBodySize = Math.min(MAX_BODY_SIZE, maxTotalSize);
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) {
+        if (!isCacheable(requestContext)) {
+            return;
+        }
+        ValidatedResponse response = getResponse(requestContext.getUri().toString());
+        if (response == null) {
+            return;
+        }
+        requestContext.setProperty(VALIDATED_RESPONSE_PROPERTY, response);
+        if (response.etag != null) {
+            requestContext.getHeaders().putSingle("If-None-Match", response.etag);
+        }
+        if (response.lastModified != null) {
+            requestContext.getHeaders().putSingle("If-Modified-Since", response.lastModified);
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        if (!isCacheable(requestContext)) {
+            return;
+        }
+        String uri = requestContext.getUri().toString();
+        if (responseContext.getStatus() == NOT_MODIFIED) {
+            // the same body used to send the validators, as the stored one could have changed
+            ValidatedResponse response = (ValidatedResponse) requestContext.getProperty(VALIDATED_RESPONSE_PROPERTY);
+            if (response != null) {
+                synchronized (this) {
+                    notModifiedResponses++;
+                }
+                responseContext.setStatus(200);
+                responseContext.getHeaders().putSingle("Content-Type", response.contentType);
+                if (response.contentEncoding != null) {
+                    // the body is kept as it came, so it could still need to be decoded
+                    responseContext.getHeaders().putSingle("Content-Encoding", response.contentEncoding);
+                }
+                responseContext.setEntityStream(new ByteArrayInputStream(response.body));
+            }
+            return;
+        }
+        String etag = responseContext.getHeaderString("ETag");
+        String lastModified = responseContext.getHeaderString("Last-Modified");
+        if (responseContext.getStatus() != 200 || (etag == null && lastModified == null) || !responseContext.hasEntity()) {
+            removeResponse(uri);
+            return;
+        }
+        byte[] body = readBody(responseContext);
+        if (body == null) {
+            // too big to keep it; the body was already given back to the response
+            removeResponse(uri);
+            return;
+        }
+        responseContext.setEntityStream(new ByteArrayInputStream(body));
+        putResponse(uri, new ValidatedResponse(etag, lastModified,
+                responseContext.getHeaderString("Content-Type"), responseContext.getHeaderString("Content-Encoding"), body));
+    }
+
+    public synchronized Json toJson() {
+        return Json.map()
+                .set("responses", responses.size())
+                .set("size", totalSize)
+                .set("maxSize", maxTotalSize)
+                .set("notModifiedResponses", notModifiedResponses);
+    }
+
+    private boolean isCacheable(ClientRequestContext requestContext) {
+        return maxTotalSize > 0 && "GET".equals(requestContext.getMethod()) && CACHEABLE_PATHS.matcher(requestContext.getUri().getPath()).matches();
+    }
+
+    private synchronized ValidatedResponse getResponse(String uri) {
+        return responses.get(uri);
+    }
+
+    private synchronized void putResponse(String uri, ValidatedResponse response) {
+        removeResponse(uri);
+        responses.put(uri, response);
+        totalSize += response.body.length;
+        Iterator<ValidatedResponse> eldest = responses.values().iterator();
+        while (totalSize > maxTotalSize && eldest.hasNext()) {
+            totalSize -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    private synchronized void removeResponse(String uri) {
+        ValidatedResponse response = responses.remove(uri);
+        if (response != null) {
+            totalSize -= response.body.length;
+        }
+    }
+
+    /**
+     * Reads the whole body, unless it is bigger than the max size. In that case null is returned
+     * and the entity stream of the response is replaced by one with the bytes already read
+     * followed by the rest of the original stream, so the body can still be read.
+     */
+    private byte[] readBody(ClientResponseContext responseContext) throws IOException {
+        InputStream is = responseContext.getEntityStream();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+            if (os.size() > maxBodySize) {
+                responseContext.setEntityStream(new SequenceInputStream(new ByteArrayInputStream(os.toByteArray()), is));
+                return null;
+            }
+        }
+        return os.toByteArray();
+    }
+
+    private static class ValidatedResponse {
+        private final String etag;
+        private final String lastModified;
+        private final String contentType;
+        private final String contentEncoding;
+        private final byte[] body;
+
+        private ValidatedResponse(String etag, String lastModified, String contentType, String contentEncoding, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+}
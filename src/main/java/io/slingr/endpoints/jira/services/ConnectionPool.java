@@ -0,0 +1,74 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configuration and statistics of the connections to JIRA.
+ *
+ * <p>The REST client uses the HTTP connector of the JDK, which keeps a pool of kept-alive
+ * connections per host that is configured through the 'http.keepAlive' and 'http.maxConnections'
+ * system properties. This has some limits:
+ * <ul>
+ *     <li>they are JVM-wide system properties, so they affect any other HTTP client of the JDK
+ *     running in the same JVM;</li>
+ *     <li>the JDK reads them only once, when its HTTP classes are loaded, so they don't have
+ *     any effect if something in the JVM did an HTTP request before the endpoint started;</li>
+ *     <li>the time an idle connection is kept can't be configured in Java 8; the JDK closes
+ *     it after 5 seconds, or what JIRA indicates in the 'Keep-Alive' header.</li>
+ * </ul>
+ */
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    private final int maxConnectionsPerRoute;
+    private final boolean keepAlive;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalTimeMillis = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public ConnectionPool(int maxConnectionsPerRoute, boolean keepAlive) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Applies the settings to the HTTP connector of the JDK, which only takes them if its HTTP
+     * classes weren't loaded yet.
+     */
+    public void configure() {
+        System.setProperty("http.keepAlive", Boolean.toString(keepAlive));
+        System.setProperty("http.maxConnections", Integer.toString(maxConnectionsPerRoute));
+    }
+
+    void requestStarted() {
+        requests.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    void requestFinished(long millis, boolean failed) {
+        inFlight.decrementAndGet();
+        totalTimeMillis.addAndGet(millis);
+        if (failed) {
+            failures.incrementAndGet();
+        }
+    }
+
+    public Json toJson() {
+        long requestsCount = requests.get();
+        return Json.map()
+                .set("maxConnectionsPerRoute", maxConnectionsPerRoute)
+                .set("keepAlive", keepAlive)
+                .set("requests", requestsCount)
+                .set("failures", failures.get())
+                .set("inFlight", inFlight.get())
+                .set("maxInFlight", maxInFlight.get())
+                .set("averageTime", requestsCount > 0 ? totalTimeMillis.get() / requestsCount : 0);
+    }
+}
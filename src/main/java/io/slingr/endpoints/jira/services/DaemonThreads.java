@@ -0,0 +1,26 @@
+package io.slingr.endpoints.jira.services;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the executors used in the background. They are daemon threads, so
+ * they don't keep the endpoint running when it is stopped.
+ */
+final class DaemonThreads {
+    private DaemonThreads() {
+    }
+
+    /**
+     * @param name prefix of the names of the threads, which are numbered
+     * @return a thread factory for an executor
+     */
+    static ThreadFactory named(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,256 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.jira.converters.TimeUtils;
+import io.slingr.endpoints.utils.Json;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Fetches the issues updated since the last sync, in the order they were updated. The watermark
+ * (the 'updated' date of the last issue seen) is stored in a file after each page, so a sync
+ * that is interrupted, or the next one after a restart, continues from there.
+ *
+ * <p>The clock of JIRA and ours could differ, and JQL only has minute precision, so each sync
+ * goes back some minutes before the watermark. Issues already seen with the same 'updated' date
+ * are skipped, which means issues are only sent again when they really changed.
+ *
+ * <p>Pages are read by offset, but each page starts with the last issue of the previous one.
+ * If an issue before the offset is updated during the sync it moves to the end and the rest
+ * shift, which would make us skip an issue. When that happens the first issue of the page is
+ * not the expected one, so the query is sent again from the current watermark (without the
+ * overlap, as the issues that could have been skipped are after the watermark). This way pages
+ * are only read again when issues change during the sync, and not for every page.
+ */
+public class DeltaSync {
+    private static final Logger logger = LoggerFactory.getLogger(DeltaSync.class);
+
+    public static final int DEFAULT_OVERLAP = 5;
+    private static final int MIN_PAGE_SIZE = 2;
+
+    private final JiraApi jiraApi;
+    private final Path folder;
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    public DeltaSync(JiraApi jiraApi, String folder) {
+        this.jiraApi = jiraApi;
+        this.folder = Paths.get(folder);
+    }
+
+    /**
+     * Runs a sync. Only one sync with the same id runs at the same time.
+     *
+     * @param syncId identifies the sync and its watermark
+     * @param params the query to restrict the issues ('query'), the overlap in minutes ('overlap'),
+     *               if the watermark has to be discarded ('reset') and search params like
+     *               'size', 'fields' or 'expand'
+     * @param pageConsumer receives the issues of each page, in JIRA format and in order
+     * @return a summary of the sync
+     */
+    public Json sync(String syncId, Json params, Consumer<List<Json>> pageConsumer) {
+        if (StringUtils.isBlank(syncId) || !syncId.matches("[\\w\\-]+")) {
+            throw new IllegalArgumentException(String.format("Invalid sync id [%s], only letters, numbers, '_' and '-' are allowed", syncId));
+        }
+        final int overlap = params.isEmpty("overlap") ? DEFAULT_OVERLAP : params.integer("overlap");
+        if (overlap < 0) {
+            throw new IllegalArgumentException("Overlap cannot be negative");
+        }
+        synchronized (locks.computeIfAbsent(syncId, id -> new Object())) {
+            final Watermark watermark = params.bool("reset", false) ? new Watermark() : load(syncId);
+            final String jql = buildQuery(params.string("query"), watermark, overlap);
+            final Json searchParams = params.cloneJson().remove("offset");
+            if (!params.isEmpty("size") && params.integer("size") < MIN_PAGE_SIZE) {
+                // each page repeats one issue of the previous page
+                searchParams.set("size", MIN_PAGE_SIZE);
+            }
+            final String fields = JiraApi.listParam(params, "fields");
+            if (fields != null) {
+                // we need the date to move the watermark
+                searchParams.set("fields", fields + ",updated");
+            }
+            int count = 0;
+            int skipped = 0;
+            int pages = 0;
+            int restarts = 0;
+            int offset = 0;
+            String pageJql = jql;
+            String lastIssue = null;
+            while (true) {
+                Json page = jiraApi.findPage(searchParams.cloneJson()
+                        .set("query", pageJql)
+                        .set("offset", offset));
+                pages++;
+                List<Json> issues = page.isEmpty("issues") ? new ArrayList<>() : page.jsons("issues");
+                int first = 0;
+                if (lastIssue != null) {
+                    if (issues.isEmpty() || !lastIssue.equals(Watermark.id(issues.get(0)))) {
+                        // issues before the offset changed, so the rest could have shifted
+                        pageJql = buildQuery(params.string("query"), watermark, 0);
+                        offset = 0;
+                        lastIssue = null;
+                        restarts++;
+                        continue;
+                    }
+                    first = 1;
+                }
+                List<Json> changed = new ArrayList<>();
+                for (Json issue : issues.subList(first, issues.size())) {
+                    if (watermark.add(issue)) {
+                        changed.add(issue);
+                    } else {
+                        skipped++;
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    pageConsumer.accept(changed);
+                    count += changed.size();
+                }
+                watermark.prune(overlap);
+                save(syncId, watermark);
+                Integer total = page.integer("total");
+                if (issues.size() <= first || total == null || offset + issues.size() >= total) {
+                    break;
+                }
+                lastIssue = Watermark.id(issues.get(issues.size() - 1));
+                offset += issues.size() - 1;
+            }
+            logger.info(String.format("Sync [%s] sent [%d] issues, skipped [%d] already seen, read [%d] pages with [%d] restarts",
+                    syncId, count, skipped, pages, restarts));
+            return Json.map()
+                    .set("syncId", syncId)
+                    .set("query", jql)
+                    .set("count", count)
+                    .set("skipped", skipped)
+                    .set("pages", pages)
+                    .set("restarts", restarts)
+                    .set("watermark", watermark.updated > 0 ? TimeUtils.formatJiraDate(watermark.updated) : null);
+        }
+    }
+
+    /**
+     * Dates in JQL use the time zone of the user, so instead of an absolute date we ask for the
+     * issues updated in the last minutes, which doesn't depend on the time zone.
+     */
+    private String buildQuery(String query, Watermark watermark, int overlap) {
+        StringBuilder jql = new StringBuilder();
+        if (StringUtils.isNotBlank(query)) {
+            jql.append("(").append(query).append(")");
+        }
+        if (watermark.updated > 0) {
+            long minutes = (System.currentTimeMillis() - watermark.updated) / 60000 + overlap + 1;
+            if (jql.length() > 0) {
+                jql.append(" AND ");
+            }
+            jql.append("updated >= \"-").append(minutes).append("m\"");
+        }
+        return jql.append(" ORDER BY updated ASC, key ASC").toString().trim();
+    }
+
+    private Watermark load(String syncId) {
+        Path file = file(syncId);
+        if (!Files.exists(file)) {
+            return new Watermark();
+        }
+        try {
+            Json json = Json.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            Watermark watermark = new Watermark();
+            Date updated = TimeUtils.parseJiraDate(json.string("watermark"));
+            watermark.updated = updated != null ? updated.getTime() : 0;
+            if (!json.isEmpty("seen")) {
+                for (Json seen : json.jsons("seen")) {
+                    watermark.add(seen.string("key"), seen.string("updated"));
+                }
+            }
+            return watermark;
+        } catch (Exception e) {
+            logger.warn(String.format("Problem reading watermark of sync [%s], it will start from the beginning - exception: [%s]", syncId, e.getMessage()));
+            return new Watermark();
+        }
+    }
+
+    private void save(String syncId, Watermark watermark) {
+        Json json = Json.map()
+                .set("watermark", TimeUtils.formatJiraDate(watermark.updated))
+                .set("seen", watermark.toJson());
+        try {
+            Files.createDirectories(folder);
+            Path tmp = folder.resolve("sync-" + syncId + ".json.tmp");
+            Files.write(tmp, json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file(syncId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Error saving watermark of sync [%s]", syncId), e);
+        }
+    }
+
+    private Path file(String syncId) {
+        return folder.resolve("sync-" + syncId + ".json");
+    }
+
+    /**
+     * The 'updated' date of the last issue seen, plus the issues seen close to it, which are the
+     * ones that can come again because of the overlap.
+     */
+    private static class Watermark {
+        private long updated = 0;
+        private final Map<String, Long> seen = new HashMap<>();
+
+        /**
+         * @return false if the issue was already seen with the same 'updated' date
+         */
+        private boolean add(Json issue) {
+            return add(issue.string("key"), updated(issue));
+        }
+
+        private static String id(Json issue) {
+            return issue.string("key") + "@" + updated(issue);
+        }
+
+        private static String updated(Json issue) {
+            return issue.isEmpty("fields") ? null : issue.json("fields").string("updated");
+        }
+
+        private boolean add(String key, String issueUpdated) {
+            Date date = TimeUtils.parseJiraDate(issueUpdated);
+            if (date == null) {
+                // without the date we cannot know if it changed, so it is always sent
+                return true;
+            }
+            if (seen.putIfAbsent(key + "@" + issueUpdated, date.getTime()) != null) {
+                return false;
+            }
+            updated = Math.max(updated, date.getTime());
+            return true;
+        }
+
+        private void prune(int overlap) {
+            long limit = updated - (overlap + 1) * 60000L;
+            seen.values().removeIf(date -> date < limit);
+        }
+
+        private Json toJson() {
+            Json list = Json.list();
+            for (String id : seen.keySet()) {
+                int separator = id.lastIndexOf('@');
+                list.push(Json.map()
+                        .set("key", id.substring(0, separator))
+                        .set("updated", id.substring(separator + 1)));
+            }
+            return list;
+        }
+    }
+}
@@ -1,96 +1,481 @@
 package io.slingr.endpoints.jira.services;
 
+import io.slingr.endpoints.jira.converters.FieldConverter;
+import io.slingr.endpoints.jira.converters.TimeUtils;
 import io.slingr.endpoints.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Keeps a cache of fields in JIRA in case we need to get information about them. This is
  * especially useful for custom fields in order to get the name and type.
  *
+ * <p>Fields are kept in an immutable snapshot. A refresh builds a new snapshot and replaces the
+ * current one at once, so readers never see a half-built cache and never wait for a refresh.
+ *
+ * <p>Looking for a field that isn't in the cache triggers a refresh, as it could be a new field.
+ * To avoid refreshing all the time when events have fields we don't know (like deleted fields),
+ * ids still unknown after a refresh are remembered for a while, refreshes triggered by misses
+ * are spaced by a minimum interval, and concurrent refreshes share the same request.
+ *
+ * <p>Fields can also be refreshed periodically in the background, so conversions rarely need to
+ * wait for a refresh and renamed fields are picked up. The snapshot is only replaced when
+ * fields were added, removed or changed.
+ *
+ * <p>If a snapshot file is set, each new snapshot is also written to disk, so on the next start
+ * fields can be loaded from there without waiting for JIRA (or even if JIRA is down).
+ *
+ * <p>When a converter factory is set, each field in the snapshot comes with its converters
+ * already resolved for its type, so converting a value only needs to find the field.
+ *
  * Created by dgaviola on 4/6/15.
  */
-public class FieldsCache {
+public class FieldsCache extends RefreshableCache {
+    private static final Logger logger = LoggerFactory.getLogger(FieldsCache.class);
+
+    public static final long MIN_REFRESH_INTERVAL = 60 * 1000;
+    public static final long UNKNOWN_FIELD_TTL = 10 * 60 * 1000;
+    private static final int MAX_UNKNOWN_FIELDS = 1000;
+
     private JiraApi jiraApi;
-    private Map<String, Map<String, Object>> fieldsById = new HashMap<>();
-    private Map<String, Map<String, Object>> fieldsByName = new HashMap<>();
+    private volatile Fields fields = new Fields(new HashMap<>(), new HashMap<>());
+    private volatile long lastRefresh = 0;
+    private final AtomicReference<CompletableFuture<Void>> refreshInFlight = new AtomicReference<>();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong skippedRefreshes = new AtomicLong();
+    private final AtomicLong addedFields = new AtomicLong();
+    private final AtomicLong removedFields = new AtomicLong();
+    private final AtomicLong changedFields = new AtomicLong();
+    private Path snapshotFile = null;
+    private volatile FieldConverter.Factory converterFactory = null;
+    private volatile Runnable changeListener = null;
+    private final Map<String, Long> unknownFields = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_UNKNOWN_FIELDS;
+        }
+    };
 
     public FieldsCache(JiraApi jiraApi) {
+        super("fields");
         this.jiraApi = jiraApi;
     }
 
+    /**
+     * Reloads all fields from JIRA. If there is a refresh in progress, it waits for that one
+     * instead of sending another request.
+     */
+    @Override
     public void refresh() {
-        Json json = jiraApi.findFields();
-        for (Object fieldObj : json.toList()) {
-            Json field = (Json) fieldObj;
-            Map<String, Object> fieldMap = fieldsById.get(field.string("id"));
-            if (fieldMap == null) {
-                fieldMap = new HashMap<>();
-                fieldsById.put(field.string("id"), fieldMap);
-                fieldsByName.put(field.string("name"), fieldMap);
+        CompletableFuture<Void> call = new CompletableFuture<>();
+        while (!refreshInFlight.compareAndSet(null, call)) {
+            CompletableFuture<Void> inFlight = refreshInFlight.get();
+            if (inFlight != null) {
+                JiraApi.await(inFlight);
+                return;
+            }
+        }
+        try {
+            lastRefresh = System.currentTimeMillis();
+            refreshes.incrementAndGet();
+            Json json = jiraApi.findFields();
+            Map<String, Field> byId = new HashMap<>();
+            for (Object fieldObj : json.toList()) {
+                Field field = Field.fromJira((Json) fieldObj);
+                byId.put(field.id, field);
             }
-            fieldMap.put("id", field.string("id"));
-            fieldMap.put("name", field.string("name"));
-            if (field.contains("schema")) {
-                if ("array".equals(field.json("schema").string("type"))) {
-                    fieldMap.put("array", true);
-                    fieldMap.put("type", field.json("schema").string("items"));
-                } else {
-                    fieldMap.put("array", false);
-                    fieldMap.put("type", field.json("schema").string("type"));
+            Fields current = fields;
+            if (hasChanges(current, byId)) {
+                fields = buildFields(byId.values());
+                saveSnapshot();
+                if (!current.byId.isEmpty() && changeListener != null) {
+                    changeListener.run();
                 }
             }
+            call.complete(null);
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            refreshInFlight.set(null);
+        }
+    }
+
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Sets a listener called after a refresh finds that fields were added, removed or changed in
+     * JIRA, so data converted with the previous fields can be discarded. It isn't called on the
+     * first load.
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Sets the factory used to resolve the converters of each field. Fields already in the cache
+     * get their converters resolved again.
+     */
+    public synchronized void setConverterFactory(FieldConverter.Factory converterFactory) {
+        this.converterFactory = converterFactory;
+        fields = buildFields(fields.byId.values());
+    }
+
+    /**
+     * Loads the fields from the snapshot file written by a previous refresh. They should be
+     * revalidated against JIRA afterwards with {@link #refresh()}.
+     *
+     * @return true if fields were loaded, false if there is no snapshot or it couldn't be read
+     */
+    public boolean loadSnapshot() {
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return false;
+        }
+        try {
+            Json json = Json.parse(new String(Files.readAllBytes(snapshotFile), StandardCharsets.UTF_8));
+            List<Field> list = new ArrayList<>();
+            for (Json fieldJson : json.jsons("fields")) {
+                list.add(Field.fromSnapshot(fieldJson));
+            }
+            if (list.isEmpty()) {
+                return false;
+            }
+            fields = buildFields(list);
+            logger.info(String.format("Loaded [%d] fields from snapshot saved at [%s]", list.size(), json.string("savedAt")));
+            return true;
+        } catch (Exception e) {
+            logger.warn(String.format("Problem reading fields snapshot [%s] - exception: [%s]", snapshotFile, e.getMessage()));
+            return false;
+        }
+    }
+
+    private Fields buildFields(Collection<Field> list) {
+        FieldConverter.Factory factory = converterFactory;
+        Map<String, Field> byId = new HashMap<>();
+        Map<String, Field> byName = new HashMap<>();
+        for (Field field : list) {
+            Field compiled = field.withConverters(factory);
+            byId.put(compiled.id, compiled);
+            byName.put(compiled.name, compiled);
+        }
+        return new Fields(byId, byName);
+    }
+
+    private void saveSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        Json list = Json.list();
+        for (Field field : fields.byId.values()) {
+            list.push(field.toSnapshot());
+        }
+        Json json = Json.map()
+                .set("savedAt", TimeUtils.formatJiraDate(System.currentTimeMillis()))
+                .set("fields", list);
+        try {
+            if (snapshotFile.getParent() != null) {
+                Files.createDirectories(snapshotFile.getParent());
+            }
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            Files.write(tmp, json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache still works, it will just be slower to start next time
+            logger.warn(String.format("Problem saving fields snapshot [%s] - exception: [%s]", snapshotFile, e.getMessage()));
+        }
+    }
+
+    public Json toJson() {
+        int unknown;
+        synchronized (unknownFields) {
+            unknown = unknownFields.size();
         }
+        return Json.map()
+                .set("fields", fields.byId.size())
+                .set("refreshes", refreshes.get())
+                .set("skippedRefreshes", skippedRefreshes.get())
+                .set("unknownFields", unknown)
+                .set("addedFields", addedFields.get())
+                .set("removedFields", removedFields.get())
+                .set("changedFields", changedFields.get());
     }
 
     public String getCustomFieldId(String name) {
-        Map<String, Object> field = getFieldByName(name);
+        Field field = getFieldByName(name);
         if (field != null) {
-            return (String) field.get("id");
+            return field.id;
         }
         return null;
     }
 
     public String getCustomFieldType(String id) {
-        Map<String, Object> field = getFieldById(id);
+        Field field = getField(id);
         if (field != null) {
-            return (String) field.get("type");
+            return field.type;
         }
         return null;
     }
 
     public String getCustomFieldName(String id) {
-        Map<String, Object> field = getFieldById(id);
+        Field field = getField(id);
         if (field != null) {
-            return (String) field.get("name");
+            return field.name;
         }
         return null;
     }
 
     public boolean isCustomFieldArray(String id) {
-        Map<String, Object> field = getFieldById(id);
+        Field field = getField(id);
         if (field != null) {
-            return (boolean) field.get("array");
+            return field.array;
         }
         return false;
     }
 
-    private Map<String, Object> getFieldById(String id) {
-        Map<String, Object> field = fieldsById.get(id);
+    /**
+     * Finds a field by id. If the field isn't in the cache, fields are refreshed unless it was
+     * already looked for recently.
+     *
+     * @param id the id of the field, like customfield_10000
+     * @return the field or null if it doesn't exist
+     */
+    public Field getField(String id) {
+        Field field = fields.byId.get(id);
+        if (field != null || id == null) {
+            return field;
+        }
+        CompletableFuture<Void> inFlight = refreshInFlight.get();
+        if (inFlight == null && !shouldRefresh(id)) {
+            skippedRefreshes.incrementAndGet();
+            return null;
+        }
+        Fields refreshed = fetchWithoutFailing(() -> {
+            if (inFlight != null) {
+                // the field could be coming in the refresh in progress
+                JiraApi.await(inFlight);
+            } else {
+                refresh();
+            }
+            return fields;
+        }, "refreshing fields cache");
+        if (refreshed == null) {
+            return null;
+        }
+        field = refreshed.byId.get(id);
         if (field == null) {
-            refresh();
-            field = fieldsById.get(id);
-            if (field == null) {
-                return null;
+            synchronized (unknownFields) {
+                unknownFields.put(id, System.currentTimeMillis());
             }
         }
         return field;
     }
 
-    private Map<String, Object> getFieldByName(String name) {
+    /**
+     * Compares the fields with the current snapshot, logging and counting the differences.
+     */
+    private boolean hasChanges(Fields current, Map<String, Field> byId) {
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (Field field : byId.values()) {
+            Field currentField = current.byId.get(field.id);
+            if (currentField == null) {
+                added.add(field.id);
+            } else if (!currentField.isSameAs(field)) {
+                changed.add(String.format("%s (%s -> %s)", field.id, currentField.name, field.name));
+            }
+        }
+        for (String id : current.byId.keySet()) {
+            if (!byId.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return false;
+        }
+        // the first load isn't a change
+        if (!current.byId.isEmpty()) {
+            logger.info(String.format("Fields changed in JIRA - added: %s, removed: %s, changed: %s", added, removed, changed));
+            addedFields.addAndGet(added.size());
+            removedFields.addAndGet(removed.size());
+            changedFields.addAndGet(changed.size());
+        }
+        return true;
+    }
+
+    private boolean shouldRefresh(String id) {
+        long now = System.currentTimeMillis();
+        synchronized (unknownFields) {
+            if (isKnownUnknown(id, now)) {
+                return false;
+            }
+            unknownFields.remove(id);
+        }
+        return now - lastRefresh >= MIN_REFRESH_INTERVAL;
+    }
+
+    /**
+     * @return true if the field was looked for recently and it didn't exist
+     */
+    private boolean isKnownUnknown(String id, long now) {
+        synchronized (unknownFields) {
+            Long unknownSince = unknownFields.get(id);
+            return unknownSince != null && now - unknownSince < UNKNOWN_FIELD_TTL;
+        }
+    }
+
+    /**
+     * Checks if looking for the field with {@link #getField(String)} would need to refresh the
+     * cache (or wait for a refresh in progress). It doesn't refresh anything.
+     *
+     * @param id the id of the field
+     * @return true if the field isn't in the cache and it wasn't looked for recently
+     */
+    public boolean wouldRefresh(String id) {
+        if (id == null || fields.byId.containsKey(id)) {
+            return false;
+        }
+        if (refreshInFlight.get() != null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        return !isKnownUnknown(id, now) && now - lastRefresh >= MIN_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Refreshes the cache if it doesn't have fields yet (for example because JIRA wasn't available
+     * when the endpoint started), unless it was tried recently.
+     */
+    public void refreshIfEmpty() {
+        if (!fields.byId.isEmpty() || refreshInFlight.get() != null || System.currentTimeMillis() - lastRefresh < MIN_REFRESH_INTERVAL) {
+            return;
+        }
+        refreshWithoutFailing();
+    }
+
+    /**
+     * Same as {@link #getField(String)}, but it never refreshes the cache, so it doesn't call JIRA.
+     */
+    public Field getCachedField(String id) {
+        return fields.byId.get(id);
+    }
+
+    public Field getFieldByName(String name) {
         // in this case we won't refresh because due to the usage we make of this method it will
         // be too inefficient
-        return fieldsByName.get(name);
+        return fields.byName.get(name);
+    }
+
+    /**
+     * A field in JIRA with the converters for its values, which are resolved when the snapshot
+     * is built.
+     */
+    public static class Field {
+        private final String id;
+        private final String name;
+        private final String type;
+        private final boolean array;
+        private final FieldConverter toApp;
+        private final FieldConverter toJira;
+
+        private Field(String id, String name, String type, boolean array) {
+            this(id, name, type, array, FieldConverter.IDENTITY, FieldConverter.IDENTITY);
+        }
+
+        private Field(String id, String name, String type, boolean array, FieldConverter toApp, FieldConverter toJira) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.array = array;
+            this.toApp = toApp;
+            this.toJira = toJira;
+        }
+
+        private static Field fromJira(Json field) {
+            Json schema = field.contains("schema") ? field.json("schema") : null;
+            if (schema == null) {
+                return new Field(field.string("id"), field.string("name"), null, false);
+            } else if ("array".equals(schema.string("type"))) {
+                return new Field(field.string("id"), field.string("name"), schema.string("items"), true);
+            } else {
+                return new Field(field.string("id"), field.string("name"), schema.string("type"), false);
+            }
+        }
+
+        private static Field fromSnapshot(Json field) {
+            return new Field(field.string("id"), field.string("name"), field.string("type"), field.bool("array", false));
+        }
+
+        private Json toSnapshot() {
+            return Json.map()
+                    .set("id", id)
+                    .set("name", name)
+                    .set("type", type)
+                    .set("array", array);
+        }
+
+        private Field withConverters(FieldConverter.Factory factory) {
+            if (factory == null) {
+                return new Field(id, name, type, array);
+            }
+            return new Field(id, name, type, array, factory.toApp(type, array), factory.toJira(type, array));
+        }
+
+        private boolean isSameAs(Field other) {
+            return Objects.equals(name, other.name) && Objects.equals(type, other.type) && array == other.array;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean isArray() {
+            return array;
+        }
+
+        public Object convertToApp(Object value) {
+            return toApp.convert(value);
+        }
+
+        public Object convertToJira(Object value) {
+            return toJira.convert(value);
+        }
+    }
+
+    private static class Fields {
+        private final Map<String, Field> byId;
+        private final Map<String, Field> byName;
+
+        private Fields(Map<String, Field> byId, Map<String, Field> byName) {
+            this.byId = Collections.unmodifiableMap(byId);
+            this.byName = Collections.unmodifiableMap(byName);
+        }
     }
 }
@@ -0,0 +1,84 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the single issue lookups done within a short window into one search by keys, so
+ * a burst of lookups (for example to render linked issues) costs one round-trip instead of
+ * one per issue. Keys that the search doesn't return (like moved issues) are fetched one
+ * by one, so callers get the same result as with a regular lookup.
+ */
+class IssueBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(IssueBatcher.class);
+
+    private final JiraApi jiraApi;
+    private final long windowMillis;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("jira-issue-batcher"));
+    private Map<String, CompletableFuture<Json>> pending = new LinkedHashMap<>();
+
+    IssueBatcher(JiraApi jiraApi, long windowMillis, Executor executor) {
+        this.jiraApi = jiraApi;
+        this.windowMillis = windowMillis;
+        this.executor = executor;
+    }
+
+    CompletableFuture<Json> find(String key) {
+        synchronized (this) {
+            CompletableFuture<Json> issue = pending.get(key);
+            if (issue == null) {
+                issue = new CompletableFuture<>();
+                pending.put(key, issue);
+                if (pending.size() == 1) {
+                    scheduler.schedule(() -> executor.execute(this::flush), windowMillis, TimeUnit.MILLISECONDS);
+                } else if (pending.size() >= JiraApi.KEYS_PER_SEARCH) {
+                    executor.execute(this::flush);
+                }
+            }
+            return issue;
+        }
+    }
+
+    private void flush() {
+        Map<String, CompletableFuture<Json>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        Map<String, Json> found = null;
+        if (batch.size() > 1) {
+            try {
+                found = jiraApi.findIssuesByKeys(new ArrayList<>(batch.keySet()), Json.map());
+                logger.debug(String.format("Fetched [%d] issues in one search, [%d] were requested", found.size(), batch.size()));
+            } catch (Exception e) {
+                logger.warn(String.format("Problem fetching issues in batch, fetching them one by one - exception: [%s]", e.getMessage()));
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<Json>> entry : batch.entrySet()) {
+            Json issue = found != null ? found.get(entry.getKey()) : null;
+            if (issue != null) {
+                entry.getValue().complete(issue);
+            } else {
+                try {
+                    entry.getValue().complete(jiraApi.fetchIssue(Json.map().set("key", entry.getKey())));
+                } catch (Exception e) {
+                    entry.getValue().completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the last issues read, already converted to the application format, so repeated reads
+ * of the same issue don't need to go to JIRA. Entries are evicted when the cache is full (least
+ * recently used first) or when they expire, and they are invalidated when we learn about a
+ * change in the issue, through events or writes done by the endpoint.
+ *
+ * <p>Issues are stored under the key JIRA returns, and can be looked up and invalidated by that
+ * key in any case or by the id of the issue.
+ *
+ * <p>To avoid storing an old version of an issue that was loaded while a change arrived, a
+ * load that started before an invalidation of the same issue is not stored. Invalidations are
+ * remembered per issue for a while; when there are too many, the oldest ones are forgotten
+ * and loads that started before them are not stored either.
+ */
+public class IssueCache {
+    private static final int MAX_INVALIDATIONS = 10000;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, CachedIssue> issues;
+    // lower case keys and ids of the cached issues, pointing to their keys
+    private final Map<String, String> aliases = new HashMap<>();
+    private final Map<String, Long> invalidations = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() > MAX_INVALIDATIONS) {
+                forgottenInvalidations = Math.max(forgottenInvalidations, eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private long sequence = 0;
+    private long forgottenInvalidations = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public IssueCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.issues = new LinkedHashMap<String, CachedIssue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedIssue> eldest) {
+                if (size() > IssueCache.this.maxSize) {
+                    removeAliases(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlMillis > 0;
+    }
+
+    /**
+     * Returns the issue if it is in the cache and hasn't expired.
+     *
+     * @param ref the key or id of the issue
+     * @return the issue in application format or null if it is not in the cache
+     */
+    public synchronized Json get(String ref) {
+        String key = keyOf(ref);
+        CachedIssue entry = issues.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.timestamp <= ttlMillis) {
+            hits++;
+            return entry.issue;
+        }
+        if (entry != null) {
+            remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Must be called before loading an issue from JIRA.
+     *
+     * @return a token that has to be passed to {@link #put(Json, long)}
+     */
+    public synchronized long startLoad() {
+        return sequence;
+    }
+
+    /**
+     * Stores the issue under its key unless it was invalidated, by key or id, since the load
+     * started.
+     *
+     * @param issue the issue in application format
+     * @param token the token returned by {@link #startLoad()}
+     */
+    public synchronized void put(Json issue, long token) {
+        if (!isEnabled() || issue == null || issue.isEmpty("key") || token < forgottenInvalidations) {
+            return;
+        }
+        String key = issue.string("key");
+        String id = issue.string("id");
+        if (invalidatedSince(key, token) || (id != null && (invalidatedSince(id, token) || invalidatedSince(keyOf(id), token)))) {
+            return;
+        }
+        remove(key);
+        CachedIssue entry = new CachedIssue(key, id, issue);
+        issues.put(key, entry);
+        aliases.put(key.toLowerCase(Locale.ROOT), key);
+        if (id != null) {
+            // the issue could have been cached under another key before it was moved
+            String previousKey = aliases.get(id);
+            if (previousKey != null && !previousKey.equals(key)) {
+                remove(previousKey);
+            }
+            aliases.put(id, key);
+        }
+    }
+
+    /**
+     * @param ref the key or id of the issue
+     */
+    public synchronized void invalidate(String ref) {
+        String key = keyOf(ref);
+        sequence++;
+        // removed first so the key moves to the end as the newest invalidation
+        invalidations.remove(key);
+        invalidations.put(key, sequence);
+        remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        sequence++;
+        forgottenInvalidations = sequence;
+        invalidations.clear();
+        issues.clear();
+        aliases.clear();
+    }
+
+    public synchronized Json toJson() {
+        return Json.map()
+                .set("size", issues.size())
+                .set("maxSize", maxSize)
+                .set("hits", hits)
+                .set("misses", misses);
+    }
+
+    private String keyOf(String ref) {
+        String key = aliases.get(ref.toLowerCase(Locale.ROOT));
+        return key != null ? key : ref.toUpperCase(Locale.ROOT);
+    }
+
+    private boolean invalidatedSince(String key, long token) {
+        Long invalidation = invalidations.get(key);
+        return invalidation != null && token < invalidation;
+    }
+
+    private void remove(String key) {
+        CachedIssue entry = issues.remove(key);
+        if (entry != null) {
+            removeAliases(entry);
+        }
+    }
+
+    private void removeAliases(CachedIssue entry) {
+        aliases.remove(entry.key.toLowerCase(Locale.ROOT), entry.key);
+        if (entry.id != null) {
+            aliases.remove(entry.id, entry.key);
+        }
+    }
+
+    private static class CachedIssue {
+        private final String key;
+        private final String id;
+        private final Json issue;
+        private final long timestamp = System.currentTimeMillis();
+
+        private CachedIssue(String key, String id, Json issue) {
+            this.key = key;
+            this.id = id;
+            this.issue = issue;
+        }
+    }
+}
@@ -1,10 +1,47 @@
 package io.slingr.endpoints.jira.services;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.slingr.endpoints.services.rest.RestClient;
 import io.slingr.endpoints.utils.Json;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Talks to the JIRA REST API.
@@ -12,15 +49,98 @@ import javax.ws.rs.client.WebTarget;
  * Created by dgaviola on 3/6/15.
  */
 public class JiraApi extends RestClient {
+    public static final int BULK_CREATE_SIZE = 50;
+    public static final int KEYS_PER_SEARCH = 50;
+    public static final long DEFAULT_TRANSITIONS_TTL = 10 * 60 * 1000;
+    public static final int MAX_RATE_LIMITED_ATTEMPTS = 5;
+    public static final int DEFAULT_ASYNC_THREADS = 16;
+    public static final int DEFAULT_SEARCH_CONCURRENCY = 8;
+    public static final int DEFAULT_WRITE_CONCURRENCY = 5;
+    public static final int DEFAULT_METADATA_CONCURRENCY = 4;
+    public static final int DEFAULT_TRANSFER_CONCURRENCY = 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(JiraApi.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String REQUEST_ENTITY_PROCESSING = "jersey.config.client.request.entity.processing";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(DaemonThreads.named("jira-api"));
+    private ExecutorService asyncExecutor = newAsyncExecutor(DEFAULT_ASYNC_THREADS);
+    private final ConcurrentMap<String, CompletableFuture<Json>> inFlightGets = new ConcurrentHashMap<>();
+    private IssueBatcher issueBatcher = null;
+    private TransitionsCache transitionsCache = new TransitionsCache(DEFAULT_TRANSITIONS_TTL);
+    private RateLimiter rateLimiter = new RateLimiter(RateLimiter.DEFAULT_MAX_CONCURRENCY, RateLimiter.DEFAULT_MAX_WAIT);
+    private ConnectionPool connectionPool = new ConnectionPool(ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE, true);
+    private ConditionalGets conditionalGets = new ConditionalGets(ConditionalGets.DEFAULT_MAX_TOTAL_SIZE);
+    private Compression compression = new Compression(false);
+    private CircuitBreaker circuitBreaker = new CircuitBreaker(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_TIME);
+    private Bulkhead searchBulkhead = new Bulkhead("search", DEFAULT_SEARCH_CONCURRENCY, Bulkhead.DEFAULT_MAX_WAIT);
+    private Bulkhead writeBulkhead = new Bulkhead("write", DEFAULT_WRITE_CONCURRENCY, Bulkhead.DEFAULT_MAX_WAIT);
+    private Bulkhead metadataBulkhead = new Bulkhead("metadata", DEFAULT_METADATA_CONCURRENCY, Bulkhead.DEFAULT_MAX_WAIT);
+    private Bulkhead transferBulkhead = new Bulkhead("transfer", DEFAULT_TRANSFER_CONCURRENCY, Bulkhead.DEFAULT_MAX_WAIT);
 
     public JiraApi(String jiraUrl, String username, String password, boolean debug) {
         super(jiraUrl + "/rest/api/2");
         setDebug(debug);
         setupBasicAuthentication(username, password);
+        connectionPool.configure();
     }
 
     public Json findIssues(Json params) {
-        WebTarget target = getApiTarget()
+        return findIssues(params, searchBulkhead);
+    }
+
+    /**
+     * Same as {@link #findIssues(Json)}, but it waits for a search slot as long as needed instead
+     * of being rejected when there are too many searches. It is used for the pages of operations
+     * that read many pages, which would fail entirely if one page was rejected.
+     */
+    public Json findPage(Json params) {
+        return findIssues(params, searchBulkhead.withoutMaxWait());
+    }
+
+    private Json findIssues(Json params, Bulkhead bulkhead) {
+        WebTarget target = searchTarget(params);
+        Json result = sharedGet(bulkhead, target);
+        if (result != null && result.contains("issues")) {
+            for (Json issue : result.jsons("issues")) {
+                transitionsCache.updateIssue(issue);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #findIssues(Json)}, but the response is parsed while it arrives and each issue
+     * is given to the consumer as soon as it is read, so the whole page is never in memory. The
+     * consumer shouldn't keep the issue in JIRA format once it is done with it.
+     *
+     * <p>The consumer is called while the response is being read, so it should be fast enough
+     * to not keep the connection busy for long. It must not send requests to JIRA, as the search
+     * is still holding its slot and its permit to send requests.
+     *
+     * @param params query params as accepted by {@link #findIssues(Json)}
+     * @param issueConsumer receives each issue in order, as returned by JIRA
+     * @return the search result without the issues, plus 'count' with the number of issues read
+     */
+    public Json streamIssues(Json params, Consumer<Json> issueConsumer) {
+        WebTarget target = searchTarget(params);
+        return execute(searchBulkhead, () -> {
+            Response response = target.request(MediaType.APPLICATION_JSON_TYPE).get();
+            try {
+                if (response.getStatus() >= 300) {
+                    throw new RuntimeException(String.format("Error searching issues, status [%s]: %s", response.getStatus(), response.readEntity(String.class)));
+                }
+                return readSearchResult(response.readEntity(InputStream.class), issueConsumer);
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading search result from JIRA", e);
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    private WebTarget searchTarget(Json params) {
+        WebTarget target = apiTarget()
                 .path("/search")
                 .queryParam("jql", params.string("query"));
         if (!params.isEmpty("offset")) {
@@ -32,47 +152,481 @@ public class JiraApi extends RestClient {
             }
             target = target.queryParam("maxResults", params.integer("size"));
         }
-        return get(target);
+        if (!params.isEmpty("validateQuery")) {
+            target = target.queryParam("validateQuery", params.string("validateQuery"));
+        }
+        return withProjection(target, params);
+    }
+
+    /**
+     * Walks all the pages of a JQL query, starting at the given offset. While the consumer is
+     * processing one page the next one is already being fetched, so the time spent converting
+     * a page overlaps with the round-trip of the following one.
+     *
+     * <p>When parallelism is greater than one, the first page is used to learn the total and the
+     * page size JIRA is using, and then the remaining pages are fetched at the same time, keeping
+     * at most that many requests in flight (but never more than searches allowed at the same
+     * time). Pages are still given to the consumer in order.
+     *
+     * @param params query params as accepted by {@link #findIssues(Json)}, where size is the page size
+     * @param parallelism maximum number of pages being fetched at the same time
+     * @param pageConsumer receives each page in order, as returned by JIRA
+     */
+    public void findAllIssues(Json params, int parallelism, Consumer<Json> pageConsumer) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be greater than zero");
+        }
+        int startAt = params.isEmpty("offset") ? 0 : params.integer("offset");
+        Json page = findPage(pageParams(params, startAt));
+        if (parallelism > 1) {
+            fanOutPages(params, startAt, page, Math.min(parallelism, searchBulkhead.getMaxConcurrency()), pageConsumer);
+            return;
+        }
+        while (page != null) {
+            int fetched = countIssues(page);
+            Integer total = page.integer("total");
+            startAt += fetched;
+            CompletableFuture<Json> nextPage = null;
+            if (fetched > 0 && total != null && startAt < total) {
+                nextPage = findPageAsync(params, startAt);
+            }
+            pageConsumer.accept(page);
+            page = nextPage != null ? await(nextPage) : null;
+        }
+    }
+
+    /**
+     * Enables merging lookups of single issues done within the given window into one search.
+     *
+     * @param windowMillis how long to wait for other lookups before doing the search; zero
+     *                     or less disables batching
+     */
+    public void setIssueBatchWindow(long windowMillis) {
+        issueBatcher = windowMillis > 0 ? new IssueBatcher(this, windowMillis, executor) : null;
+    }
+
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        connectionPool.configure();
+        this.connectionPool = connectionPool;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Sets the number of threads used to run the async variants of the operations. Operations
+     * beyond that number wait in a queue, which is much cheaper than having a thread blocked
+     * for each of them.
+     *
+     * @param threads number of threads
+     */
+    public void setAsyncThreads(int threads) {
+        ExecutorService previous = asyncExecutor;
+        asyncExecutor = newAsyncExecutor(threads);
+        previous.shutdown();
+    }
+
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public void setConditionalGets(ConditionalGets conditionalGets) {
+        this.conditionalGets = conditionalGets;
+    }
+
+    public ConditionalGets getConditionalGets() {
+        return conditionalGets;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets how many requests of each kind can be in progress at the same time. Metadata (fields,
+     * projects, transitions) has its own limit, so lookups done while processing events keep
+     * working even if searches or writes are stuck.
+     *
+     * @param search max concurrent searches and reads of issues
+     * @param write max concurrent creates, updates, deletes, comments and transitions
+     * @param metadata max concurrent reads of fields, projects, transitions and server info
+     * @param transfer max concurrent uploads and downloads of attachments
+     */
+    public void setBulkheads(int search, int write, int metadata, int transfer) {
+        searchBulkhead = new Bulkhead("search", search, Bulkhead.DEFAULT_MAX_WAIT);
+        writeBulkhead = new Bulkhead("write", write, Bulkhead.DEFAULT_MAX_WAIT);
+        metadataBulkhead = new Bulkhead("metadata", metadata, Bulkhead.DEFAULT_MAX_WAIT);
+        transferBulkhead = new Bulkhead("transfer", transfer, Bulkhead.DEFAULT_MAX_WAIT);
+    }
+
+    public Json bulkheadsToJson() {
+        return Json.map()
+                .set("search", searchBulkhead.toJson())
+                .set("write", writeBulkhead.toJson())
+                .set("metadata", metadataBulkhead.toJson())
+                .set("transfer", transferBulkhead.toJson());
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets how long the transitions of each project, issue type and status are kept before
+     * asking JIRA again.
+     *
+     * @param ttlMillis time to live of the transitions in milliseconds
+     */
+    public void setTransitionsTtl(long ttlMillis) {
+        transitionsCache = new TransitionsCache(ttlMillis);
     }
 
     public Json findIssue(Json query) {
-        WebTarget target = getApiTarget().path("/issue/" + query.string("key"));
-        return get(target);
+        if (issueBatcher != null && query.isEmpty("fields") && query.isEmpty("expand")) {
+            return await(issueBatcher.find(query.string("key")));
+        }
+        return fetchIssue(query);
+    }
+
+    /**
+     * Finds many issues by key, doing one search for every {@link #KEYS_PER_SEARCH} keys. Keys of
+     * issues that don't exist are ignored, as well as keys of issues that were moved, because the
+     * search returns them with their new key.
+     *
+     * @param keys the keys of the issues
+     * @param params other params like 'fields' or 'expand'; all fields are returned by default
+     * @return the issues found, indexed by key
+     */
+    public Map<String, Json> findIssuesByKeys(List<String> keys, Json params) {
+        Map<String, Json> issues = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += KEYS_PER_SEARCH) {
+            List<String> chunk = keys.subList(from, Math.min(from + KEYS_PER_SEARCH, keys.size()));
+            List<String> quotedKeys = new ArrayList<>();
+            for (String key : chunk) {
+                quotedKeys.add("\"" + key.replace("\"", "") + "\"");
+            }
+            Json searchParams = Json.map()
+                    .set("query", String.format("key in (%s)", StringUtils.join(quotedKeys, ",")))
+                    .set("size", chunk.size())
+                    .set("validateQuery", "warn")
+                    .set("fields", params.isEmpty("fields") ? "*all" : params.object("fields"));
+            if (!params.isEmpty("expand")) {
+                searchParams.set("expand", params.object("expand"));
+            }
+            findAllIssues(searchParams, 1, page -> {
+                for (Json issue : page.jsons("issues")) {
+                    issues.put(issue.string("key"), issue);
+                }
+            });
+        }
+        return issues;
+    }
+
+    Json fetchIssue(Json query) {
+        WebTarget target = apiTarget().path("/issue/" + query.string("key"));
+        target = withProjection(target, query);
+        Json issue = sharedGet(searchBulkhead, target);
+        transitionsCache.updateIssue(issue);
+        return issue;
     }
 
     public Json createIssue(Json issue) {
-        WebTarget target = getApiTarget().path("/issue");
-        return post(target, issue);
+        WebTarget target = apiTarget().path("/issue");
+        return execute(writeBulkhead, () -> post(target, issue));
+    }
+
+    /**
+     * Creates issues using the bulk API, sending up to {@link #BULK_CREATE_SIZE} issues per request.
+     * Failures of single issues, or of a whole request, don't stop the process; instead a result
+     * is returned for each issue in the same order they were given. Chunks wait for a write slot
+     * instead of being rejected when the bulkhead is busy, so a long import isn't cut halfway.
+     *
+     * @param issues the issues to create, in JIRA format
+     * @return one result per issue, with the key and id on success or the errors on failure
+     */
+    public List<Json> createIssues(List<Json> issues) {
+        Bulkhead bulkhead = writeBulkhead.withoutMaxWait();
+        List<Json> results = new ArrayList<>();
+        for (int from = 0; from < issues.size(); from += BULK_CREATE_SIZE) {
+            List<Json> chunk = issues.subList(from, Math.min(from + BULK_CREATE_SIZE, issues.size()));
+            Json issueUpdates = Json.list();
+            for (Json issue : chunk) {
+                issueUpdates.push(Json.map().set("fields", issue.json("fields")));
+            }
+            Json res;
+            try {
+                res = bulkPost(bulkhead, apiTarget().path("/issue/bulk"), Json.map().set("issueUpdates", issueUpdates));
+            } catch (RuntimeException e) {
+                // issues of previous chunks were already created, so we don't throw to keep their results
+                logger.warn(String.format("Problem creating issues [%d] to [%d] in bulk - exception: [%s]", from, from + chunk.size() - 1, e.getMessage()));
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.add(Json.map()
+                            .set("index", from + i)
+                            .set("success", false)
+                            .set("errorMessages", Json.list().push(String.format("Error creating issues in bulk: %s", e.getMessage()))));
+                }
+                continue;
+            }
+            Map<Integer, Json> errors = new HashMap<>();
+            if (res.contains("errors")) {
+                for (Json error : res.jsons("errors")) {
+                    errors.put(error.integer("failedElementNumber"), error);
+                }
+            }
+            // created issues come in the same order, skipping the ones that failed
+            Iterator<Json> created = res.contains("issues") ? res.jsons("issues").iterator() : Collections.<Json>emptyIterator();
+            for (int i = 0; i < chunk.size(); i++) {
+                Json result = Json.map().set("index", from + i);
+                Json error = errors.get(i);
+                if (error == null && created.hasNext()) {
+                    Json issue = created.next();
+                    result.set("success", true)
+                            .set("id", issue.string("id"))
+                            .set("key", issue.string("key"));
+                } else {
+                    result.set("success", false);
+                    if (error != null) {
+                        result.set("status", error.integer("status"));
+                        if (error.contains("elementErrors")) {
+                            result.set("errors", error.json("elementErrors").json("errors"));
+                            result.set("errorMessages", error.json("elementErrors").object("errorMessages"));
+                        }
+                    } else {
+                        result.set("errorMessages", Json.list().push("Issue was not created"));
+                    }
+                }
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Adds many work logs, which can belong to different issues. Work logs of the same issue are
+     * added one after the other, in the order they were given, while different issues are
+     * processed at the same time up to the given parallelism, which is capped by the concurrency
+     * of the write bulkhead. Work logs wait for a write slot instead of being rejected. Failures of
+     * single work logs don't stop the process; instead a result is returned for each work log in
+     * the same order.
+     *
+     * @param workLogs the work logs in JIRA format, with the key of the issue in 'issueKey'
+     * @param parallelism maximum number of issues being processed at the same time
+     * @return one result per work log, with the id on success or the error on failure
+     */
+    public List<Json> addWorkLogs(List<Json> workLogs, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be greater than zero");
+        }
+        Map<String, List<Integer>> byIssue = new LinkedHashMap<>();
+        for (int i = 0; i < workLogs.size(); i++) {
+            byIssue.computeIfAbsent(workLogs.get(i).string("issueKey"), key -> new ArrayList<>()).add(i);
+        }
+        Bulkhead bulkhead = writeBulkhead.withoutMaxWait();
+        int workersCount = Math.min(Math.min(parallelism, bulkhead.getMaxConcurrency()), byIssue.size());
+        Json[] results = new Json[workLogs.size()];
+        Queue<List<Integer>> pending = new ConcurrentLinkedQueue<>(byIssue.values());
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < workersCount; w++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                List<Integer> indexes;
+                while ((indexes = pending.poll()) != null) {
+                    for (int index : indexes) {
+                        results[index] = addWorkLog(bulkhead, workLogs.get(index)).set("index", index);
+                    }
+                }
+            }, executor));
+        }
+        await(CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])));
+        return Arrays.asList(results);
+    }
+
+    private Json addWorkLog(Bulkhead bulkhead, Json workLog) {
+        String issueKey = workLog.string("issueKey");
+        Json result = Json.map().set("issueKey", issueKey);
+        try {
+            WebTarget target = apiTarget().path("/issue/" + issueKey + "/worklog");
+            Json body = workLog.cloneJson().remove("issueKey");
+            Json res = execute(bulkhead, () -> post(target, body));
+            return result.set("success", true)
+                    .set("id", res != null ? res.string("id") : null);
+        } catch (RuntimeException e) {
+            return result.set("success", false)
+                    .set("errorMessages", Json.list().push(e.getMessage()));
+        }
     }
 
     public Json updateIssue(Json issue) {
-        WebTarget target = getApiTarget().path("/issue/" + issue.string("key"));
-        Json res = put(target, issue);
+        WebTarget target = apiTarget().path("/issue/" + issue.string("key"));
+        Json res = execute(writeBulkhead, () -> put(target, issue));
         res.set("key", issue.string("key"));
         return res;
     }
 
     public Json deleteIssue(Json query) {
-        WebTarget target = getApiTarget().path("/issue/" + query.string("key"));
-        Json res = delete(target);
+        WebTarget target = apiTarget().path("/issue/" + query.string("key"));
+        Json res = execute(writeBulkhead, () -> delete(target));
         res.set("key", query.string("key"));
         return res;
     }
 
     public Json addComment(Json comment) {
-        WebTarget target = getApiTarget().path("/issue/" + comment.string("issueKey") + "/comment");
-        return post(target, comment);
+        WebTarget target = apiTarget().path("/issue/" + comment.string("issueKey") + "/comment");
+        return execute(writeBulkhead, () -> post(target, comment));
+    }
+
+    /**
+     * Attaches a file to an issue. The file is sent using chunked encoding as it is read, so it
+     * is never fully loaded in memory.
+     *
+     * <p>As the file can only be read once, the request is not retried if JIRA rejects it
+     * because of rate limits.
+     *
+     * @param issueKey the key of the issue
+     * @param fileName the name of the file
+     * @param contentType the content type of the file
+     * @param file the content of the file
+     * @return the attachments created in JIRA format in 'attachments', plus the 'size' and 'checksum' of the file sent
+     */
+    public Json attachFile(String issueKey, String fileName, String contentType, InputStream file) {
+        WebTarget target = apiTarget()
+                .path("/issue/" + issueKey + "/attachments")
+                .property(REQUEST_ENTITY_PROCESSING, "CHUNKED");
+        String boundary = "jira-" + UUID.randomUUID().toString();
+        boolean[] readFailed = new boolean[1];
+        ChecksumInputStream content = new ChecksumInputStream(new FilterInputStream(file) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    readFailed[0] = true;
+                    throw e;
+                }
+            }
+        });
+        boolean[] sent = new boolean[1];
+        StreamingOutput body = os -> {
+            sent[0] = true;
+            // from here on we are only sending the file, which shouldn't keep a permit of the rate limiter
+            rateLimiter.releaseCurrent();
+            String header = "--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName.replace("\"", "\\\"") + "\"\r\n"
+                    + "Content-Type: " + (StringUtils.isBlank(contentType) ? MediaType.APPLICATION_OCTET_STREAM : contentType) + "\r\n\r\n";
+            os.write(header.getBytes(StandardCharsets.UTF_8));
+            copy(content, os);
+            os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        };
+        // like downloads, uploads have their own slots so big files don't block other writes
+        Json attachments;
+        transferBulkhead.acquire();
+        try {
+            attachments = execute(null, () -> {
+                if (sent[0]) {
+                    throw new RuntimeException(String.format("File [%s] was already sent and cannot be sent again to issue [%s]", fileName, issueKey));
+                }
+                Response response;
+                try {
+                    response = target.request(MediaType.APPLICATION_JSON_TYPE)
+                            .header("X-Atlassian-Token", "no-check")
+                            .post(Entity.entity(body, "multipart/form-data; boundary=" + boundary));
+                } catch (ProcessingException e) {
+                    if (readFailed[0]) {
+                        throw new CircuitBreaker.LocalException(String.format("Error reading file [%s] to attach it to issue [%s]", fileName, issueKey), e);
+                    }
+                    throw e;
+                }
+                try {
+                    String entity = response.readEntity(String.class);
+                    if (response.getStatus() >= 300) {
+                        throw new RuntimeException(String.format("Error attaching file [%s] to issue [%s], status [%s]: %s", fileName, issueKey, response.getStatus(), entity));
+                    }
+                    return Json.parse(entity);
+                } finally {
+                    response.close();
+                }
+            });
+        } finally {
+            transferBulkhead.release();
+        }
+        return Json.map()
+                .set("attachments", attachments)
+                .set("size", content.getSize())
+                .set("checksum", content.getChecksum());
     }
 
+    /**
+     * Downloads the content of an attachment. The content is given to the consumer as a stream
+     * while it is downloaded, so it is never fully loaded in memory.
+     *
+     * @param attachmentId the id of the attachment
+     * @param consumer receives the attachment in JIRA format and the stream with the content; what
+     *                 it returns is the result of this method
+     * @return the result of the consumer, plus the 'size' and 'checksum' of the content downloaded
+     */
+    public Json downloadAttachment(String attachmentId, BiFunction<Json, InputStream, Json> consumer) {
+        Json attachment = sharedGet(metadataBulkhead, apiTarget().path("/attachment/" + attachmentId));
+        WebTarget target = apiTarget().path("/attachment/content/" + attachmentId);
+        // the transfer slot is kept during the whole download, but the rate limiter and the
+        // circuit breaker only see the request until JIRA answers, so a long transfer doesn't
+        // take a permit and problems on our side aren't counted as JIRA failures
+        transferBulkhead.acquire();
+        try {
+            Response response = execute(null, () -> {
+                Response res = target.request(MediaType.WILDCARD_TYPE).get();
+                if (res.getStatus() >= 300) {
+                    try {
+                        throw new RuntimeException(String.format("Error downloading attachment [%s], status [%s]: %s", attachmentId, res.getStatus(), res.readEntity(String.class)));
+                    } finally {
+                        res.close();
+                    }
+                }
+                return res;
+            });
+            try (ChecksumInputStream content = new ChecksumInputStream(response.readEntity(InputStream.class))) {
+                Json res = consumer.apply(attachment, content);
+                // the consumer could stop before the end
+                copy(content, null);
+                return (res != null ? res : Json.map())
+                        .set("size", content.getSize())
+                        .set("checksum", content.getChecksum());
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("Error downloading attachment [%s]", attachmentId), e);
+            } finally {
+                response.close();
+            }
+        } finally {
+            transferBulkhead.release();
+        }
+    }
+
+    /**
+     * Performs a transition on an issue. The transition can be given by id or name and is
+     * resolved using the {@link TransitionsCache} when the state of the issue is known. If it
+     * isn't, or JIRA rejects the cached transition as invalid for the issue, the issue is fetched
+     * with its transitions. Any other error is thrown.
+     *
+     * @param transitionInfo the key of the issue and the id or name of the transition
+     * @return the key of the issue and the transition done, in JIRA format
+     */
     public Json doTransition(Json transitionInfo) {
-        // first we need to get valid transitions for this issue
         if (transitionInfo.isEmpty("issueKey")) {
             throw new IllegalArgumentException("You need to specify issueKey");
         }
-        Json validTransitions = findValidTransitions(transitionInfo.string("issueKey"));
-        // verify the requested transition is valid
-        String transition = null;
-        String transitionId = null;
+        String issueKey = transitionInfo.string("issueKey");
+        String transition;
         if (!transitionInfo.isEmpty("transitionId")) {
             transition = transitionInfo.string("transitionId");
         } else {
@@ -81,53 +635,431 @@ public class JiraApi extends RestClient {
         if (StringUtils.isBlank(transition)) {
             throw new IllegalArgumentException("You have to specify either transitionId or transitionName");
         }
-        if (validTransitions == null || validTransitions.isEmpty("transitions")) {
-            throw new IllegalArgumentException(String.format("There are no possible transitions for issue [%s]", transitionInfo.string("issueKey")));
-        }
-        boolean valid = false;
-        for (Json t : validTransitions.jsons("transitions")) {
-            if (transition.equals(t.string("id")) || transition.equalsIgnoreCase(t.string("name"))) {
-                transitionId = t.string("id");
-                valid = true;
-                break;
+        Json validTransition = findTransition(transitionsCache.getTransitions(issueKey), transition);
+        if (validTransition != null) {
+            try {
+                postTransition(issueKey, validTransition, transition);
+                transitionsCache.transitionDone(issueKey, validTransition);
+                return Json.map().set("key", issueKey).set("transition", validTransition);
+            } catch (TransitionRejectedException e) {
+                // the state of the issue could have changed, so we try again with fresh transitions
+                logger.info(String.format("Cached transition [%s] failed on issue [%s], fetching transitions - exception: [%s]", transition, issueKey, e.getMessage()));
+                transitionsCache.invalidateIssue(issueKey);
             }
         }
-        if (!valid) {
-            throw new IllegalArgumentException(String.format("Transition [%s] is not valid for issue [%s]", transition, transitionInfo.string("issueKey")));
+        // we need to get valid transitions for this issue
+        Json issue = fetchIssue(Json.map()
+                .set("key", issueKey)
+                .set("fields", "project,issuetype,status")
+                .set("expand", "transitions")
+        );
+        transitionsCache.updateIssue(issue);
+        if (issue == null || issue.isEmpty("transitions")) {
+            throw new IllegalArgumentException(String.format("There are no possible transitions for issue [%s]", issueKey));
         }
-        // perform transition
-        WebTarget target = getApiTarget().path("/issue/" + transitionInfo.string("issueKey") + "/transitions");
-        Json body = Json.map()
-                .set("transition", Json.map()
-                        .set("id", transitionId)
-                );
-        Json res = post(target, body);
-        if (res != null) {
-            return findIssue(Json.map().set("key", transitionInfo.string("issueKey")));
-        } else {
-            throw new RuntimeException(String.format("Error executing transition [%s] on issue [%s]", transition, transitionInfo.string("issueKey")));
+        // verify the requested transition is valid
+        validTransition = findTransition(issue.jsons("transitions"), transition);
+        if (validTransition == null) {
+            throw new IllegalArgumentException(String.format("Transition [%s] is not valid for issue [%s]", transition, issueKey));
         }
+        postTransition(issueKey, validTransition, transition);
+        transitionsCache.transitionDone(issueKey, validTransition);
+        return Json.map().set("key", issueKey).set("transition", validTransition);
     }
 
     public Json findFields() {
-        WebTarget target = getApiTarget().path("/field");
-        return get(target);
+        WebTarget target = apiTarget().path("/field");
+        return sharedGet(metadataBulkhead, target);
+    }
+
+    public Json findProjects() {
+        WebTarget target = apiTarget().path("/project");
+        return sharedGet(metadataBulkhead, target);
     }
 
     public Json findProject(String projectId) {
-        WebTarget target = getApiTarget().path("/project/" + projectId);
-        return get(target);
+        WebTarget target = apiTarget().path("/project/" + projectId);
+        return sharedGet(metadataBulkhead, target);
     }
 
     public Json findValidTransitions(String issueKey) {
-        WebTarget target = getApiTarget().path("/issue/" + issueKey + "/transitions");
-        return get(target);
+        WebTarget target = apiTarget().path("/issue/" + issueKey + "/transitions");
+        return sharedGet(metadataBulkhead, target);
 
     }
 
     public Json serverInfo(Json body) {
-        WebTarget target = getApiTarget().path("/serverInfo");
+        WebTarget target = apiTarget().path("/serverInfo");
         target = target.queryParam("doHealthCheck", body.bool("doHealthCheck", false) ? "true" : "false");
-        return get(target);
+        return sharedGet(metadataBulkhead, target);
+    }
+
+    public CompletableFuture<Json> findIssuesAsync(Json params) {
+        return async(() -> findIssues(params));
+    }
+
+    public CompletableFuture<Json> findIssueAsync(Json query) {
+        return async(() -> findIssue(query));
+    }
+
+    public CompletableFuture<Json> createIssueAsync(Json issue) {
+        return async(() -> createIssue(issue));
+    }
+
+    public CompletableFuture<Json> updateIssueAsync(Json issue) {
+        return async(() -> updateIssue(issue));
+    }
+
+    public CompletableFuture<Json> addCommentAsync(Json comment) {
+        return async(() -> addComment(comment));
+    }
+
+    public CompletableFuture<Json> doTransitionAsync(Json transitionInfo) {
+        return async(() -> doTransition(transitionInfo));
+    }
+
+    public CompletableFuture<Json> findValidTransitionsAsync(String issueKey) {
+        return async(() -> findValidTransitions(issueKey));
+    }
+
+    /**
+     * Waits for the result of an async operation, throwing the original exception if it failed.
+     *
+     * @param future the result of an async operation
+     * @return the result of the operation
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Should be called when we learn about changes in an issue from outside, like events, so
+     * local information about the issue is kept up to date.
+     *
+     * @param jiraIssue the issue in JIRA format
+     */
+    public void issueUpdated(Json jiraIssue) {
+        transitionsCache.updateIssue(jiraIssue);
+    }
+
+    /**
+     * Should be called when we learn that an issue was deleted, so local information about the
+     * issue is discarded.
+     *
+     * @param issueKey the key of the issue
+     */
+    public void issueDeleted(String issueKey) {
+        transitionsCache.invalidateIssue(issueKey);
+    }
+
+    /**
+     * Reads a parameter that could be a list or a comma-separated string and returns it as a
+     * comma-separated string, which is the format JIRA expects for things like 'fields' or 'expand'.
+     *
+     * @param params the params where the value is
+     * @param name the name of the parameter
+     * @return the comma-separated value or null if it is empty
+     */
+    public static String listParam(Json params, String name) {
+        if (params == null || params.isEmpty(name)) {
+            return null;
+        }
+        Object value = params.object(name);
+        String list;
+        if (value instanceof String) {
+            list = (String) value;
+        } else {
+            list = StringUtils.join(params.strings(name), ",");
+        }
+        return StringUtils.isBlank(list) ? null : list;
+    }
+
+    private Json findTransition(List<Json> transitions, String transition) {
+        if (transitions == null) {
+            return null;
+        }
+        for (Json t : transitions) {
+            if (transition.equals(t.string("id")) || transition.equalsIgnoreCase(t.string("name"))) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private void postTransition(String issueKey, Json validTransition, String transition) {
+        WebTarget target = apiTarget().path("/issue/" + issueKey + "/transitions");
+        Json body = Json.map()
+                .set("transition", Json.map()
+                        .set("id", validTransition.string("id"))
+                );
+        execute(writeBulkhead, () -> {
+            Response response = target.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.json(body.toString()));
+            try {
+                int status = response.getStatus();
+                if (status == 400 || status == 409) {
+                    throw new TransitionRejectedException(String.format("Transition [%s] rejected on issue [%s], status [%s]: %s", transition, issueKey, status, response.readEntity(String.class)));
+                }
+                if (status >= 300) {
+                    throw new RuntimeException(String.format("Error executing transition [%s] on issue [%s], status [%s]: %s", transition, issueKey, status, response.readEntity(String.class)));
+                }
+                return null;
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * JIRA answers with 400 (or 409) when the transition isn't valid in the current state of the
+     * issue.
+     */
+    private static class TransitionRejectedException extends RuntimeException {
+        private TransitionRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Every request to JIRA goes through here, so we can keep track of them and respect the rate
+     * limits of JIRA. Requests rejected because of rate limits are retried once JIRA allows it.
+     * Requests are rejected right away when the circuit breaker is open, or when the bulkhead of
+     * the operation is full for too long. The bulkhead can be null when the caller already holds
+     * a slot.
+     */
+    private <T> T execute(Bulkhead bulkhead, Supplier<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            CircuitBreaker.Permit breakerPermit = circuitBreaker.acquire();
+            boolean sent = false;
+            boolean rateLimited = false;
+            RuntimeException error = null;
+            try {
+                if (bulkhead != null) {
+                    bulkhead.acquire();
+                }
+                try {
+                    RateLimiter.Permit ratePermit = rateLimiter.acquire();
+                    sent = true;
+                    connectionPool.requestStarted();
+                    long start = System.currentTimeMillis();
+                    try {
+                        return call.get();
+                    } catch (RuntimeException e) {
+                        error = e;
+                        throw e;
+                    } finally {
+                        rateLimited = rateLimiter.release(ratePermit);
+                        connectionPool.requestFinished(System.currentTimeMillis() - start, error != null);
+                    }
+                } finally {
+                    if (bulkhead != null) {
+                        bulkhead.release();
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (!rateLimited || attempt >= MAX_RATE_LIMITED_ATTEMPTS) {
+                    throw e;
+                }
+                logger.info(String.format("Request rejected by JIRA rate limits, retrying (attempt [%d])", attempt));
+            } finally {
+                circuitBreaker.release(breakerPermit, sent, error);
+            }
+        }
+    }
+
+    /**
+     * All requests must use this target, which has the filters we need to inspect responses.
+     */
+    private WebTarget apiTarget() {
+        WebTarget target = getApiTarget();
+        if (!target.getConfiguration().isRegistered(rateLimiter)) {
+            target = target.register(rateLimiter);
+        }
+        if (!target.getConfiguration().isRegistered(circuitBreaker)) {
+            target = target.register(circuitBreaker);
+        }
+        if (!target.getConfiguration().isRegistered(conditionalGets)) {
+            target = target.register(conditionalGets);
+        }
+        if (!target.getConfiguration().isRegistered(compression)) {
+            target = target.register(compression);
+        }
+        return target;
+    }
+
+    /**
+     * Does a GET, but if there is an identical GET (same path and query) already in flight, it
+     * waits for that one instead of sending a new request. This means that the returned JSON
+     * could be shared among several callers, so it must not be modified.
+     */
+    private Json sharedGet(Bulkhead bulkhead, WebTarget target) {
+        String key = target.getUri().toString();
+        CompletableFuture<Json> call = new CompletableFuture<>();
+        CompletableFuture<Json> inFlight = inFlightGets.putIfAbsent(key, call);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            Json res = execute(bulkhead, () -> get(target));
+            call.complete(res);
+            return res;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightGets.remove(key, call);
+        }
+    }
+
+    /**
+     * The bulk API answers with an error status when all issues fail, but the body still has the
+     * errors for each issue, so we cannot use the regular post here.
+     */
+    private Json bulkPost(Bulkhead bulkhead, WebTarget target, Json body) {
+        return execute(bulkhead, () -> {
+            Response response = target.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.json(body.toString()));
+            return readBulkResponse(response);
+        });
+    }
+
+    private Json readBulkResponse(Response response) {
+        try {
+            String entity = response.readEntity(String.class);
+            Json res = StringUtils.isBlank(entity) ? Json.map() : Json.parse(entity);
+            if (response.getStatus() >= 300 && !res.contains("errors")) {
+                throw new RuntimeException(String.format("Error creating issues in bulk, status [%s]: %s", response.getStatus(), entity));
+            }
+            return res;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads the search result token by token. Only the issue being read is fully built in memory;
+     * everything else in the result is kept only if it is a simple value, like 'total'.
+     */
+    @SuppressWarnings("unchecked")
+    private Json readSearchResult(InputStream is, Consumer<Json> issueConsumer) throws IOException {
+        Json result = Json.map();
+        int count = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Invalid search result from JIRA");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("issues".equals(name) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        Json issue = Json.fromMap(mapper.readValue(parser, Map.class));
+                        transitionsCache.updateIssue(issue);
+                        issueConsumer.accept(issue);
+                        count++;
+                    }
+                } else if (token == JsonToken.VALUE_NUMBER_INT) {
+                    result.set(name, parser.getIntValue());
+                } else if (token == JsonToken.VALUE_STRING) {
+                    result.set(name, parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result.set("count", count);
+    }
+
+    private WebTarget withProjection(WebTarget target, Json params) {
+        String fields = listParam(params, "fields");
+        if (fields != null) {
+            target = target.queryParam("fields", fields);
+        }
+        String expand = listParam(params, "expand");
+        if (expand != null) {
+            target = target.queryParam("expand", expand);
+        }
+        return target;
+    }
+
+    private void fanOutPages(Json params, int startAt, Json firstPage, int parallelism, Consumer<Json> pageConsumer) {
+        int pageSize = countIssues(firstPage);
+        int total = firstPage.integer("total") != null ? firstPage.integer("total") : 0;
+        Deque<CompletableFuture<Json>> inFlight = new ArrayDeque<>();
+        int nextStartAt = startAt + pageSize;
+        try {
+            if (pageSize > 0) {
+                while (inFlight.size() < parallelism && nextStartAt < total) {
+                    inFlight.add(findPageAsync(params, nextStartAt));
+                    nextStartAt += pageSize;
+                }
+            }
+            pageConsumer.accept(firstPage);
+            while (!inFlight.isEmpty()) {
+                Json page = await(inFlight.poll());
+                // keep the window full while the consumer works on this page
+                while (inFlight.size() < parallelism && nextStartAt < total) {
+                    inFlight.add(findPageAsync(params, nextStartAt));
+                    nextStartAt += pageSize;
+                }
+                pageConsumer.accept(page);
+            }
+        } finally {
+            for (CompletableFuture<Json> pending : inFlight) {
+                pending.cancel(false);
+            }
+        }
+    }
+
+    private CompletableFuture<Json> findPageAsync(Json params, int startAt) {
+        final Json pageParams = pageParams(params, startAt);
+        return CompletableFuture.supplyAsync(() -> findPage(pageParams), executor);
+    }
+
+    private int countIssues(Json page) {
+        List<Json> issues = page.jsons("issues");
+        return issues != null ? issues.size() : 0;
+    }
+
+    private Json pageParams(Json params, int startAt) {
+        Json pageParams = Json.map()
+                .set("query", params.string("query"))
+                .set("offset", startAt);
+        if (!params.isEmpty("size")) {
+            pageParams.set("size", params.integer("size"));
+        }
+        if (!params.isEmpty("validateQuery")) {
+            pageParams.set("validateQuery", params.string("validateQuery"));
+        }
+        if (!params.isEmpty("fields")) {
+            pageParams.set("fields", params.object("fields"));
+        }
+        if (!params.isEmpty("expand")) {
+            pageParams.set("expand", params.object("expand"));
+        }
+        return pageParams;
+    }
+
+    private void copy(InputStream is, OutputStream os) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            if (os != null) {
+                os.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private CompletableFuture<Json> async(Supplier<Json> call) {
+        return CompletableFuture.supplyAsync(call, asyncExecutor);
+    }
+
+    private ExecutorService newAsyncExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, DaemonThreads.named("jira-api-async"));
     }
 }
@@ -17,11 +17,13 @@ public class JiraEvents {
     private IssueConverter issueConverter;
     private JiraApi jiraApi;
     private FieldsCache fieldsCache;
+    private ProjectsCache projectsCache;
 
-    public JiraEvents(IssueConverter issueConverter, JiraApi jiraApi, FieldsCache fieldsCache) {
+    public JiraEvents(IssueConverter issueConverter, JiraApi jiraApi, FieldsCache fieldsCache, ProjectsCache projectsCache) {
         this.issueConverter = issueConverter;
         this.jiraApi = jiraApi;
         this.fieldsCache = fieldsCache;
+        this.projectsCache = projectsCache;
     }
 
     public String detectUser(Json body) {
@@ -93,8 +95,7 @@ public class JiraEvents {
         version.set("name", body.json("version").string("name"));
         version.set("description", body.json("version").string("description"));
         version.set("releaseDate", TimeUtils.parseVersionDate(body.json("version").string("userReleaseDate")));
-        Json project = jiraApi.findProject(body.json("version").string("projectId"));
-        version.set("project", project.string("key"));
+        version.set("project", projectsCache.getProjectKey(body.json("version").string("projectId")));
         return version;
     }
 }
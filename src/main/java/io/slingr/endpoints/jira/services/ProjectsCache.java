@@ -0,0 +1,112 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a cache of projects in JIRA indexed by id and by key, so events and conversions that
+ * only have a reference to a project don't need to go to JIRA. All projects are loaded at once
+ * and then refreshed in the background; projects that are not found are fetched individually.
+ */
+public class ProjectsCache extends RefreshableCache {
+    private static final Logger logger = LoggerFactory.getLogger(ProjectsCache.class);
+
+    private static final int MAX_PROJECTS = 5000;
+
+    private JiraApi jiraApi;
+    private volatile Projects projects = new Projects(new HashMap<>(), new HashMap<>());
+
+    public ProjectsCache(JiraApi jiraApi) {
+        super("projects");
+        this.jiraApi = jiraApi;
+    }
+
+    @Override
+    public void refresh() {
+        Map<String, Json> byId = new HashMap<>();
+        Map<String, Json> byKey = new HashMap<>();
+        for (Object projectObj : jiraApi.findProjects().toList()) {
+            Json project = compact((Json) projectObj);
+            if (byId.size() >= MAX_PROJECTS) {
+                logger.warn(String.format("There are more than [%d] projects, the rest won't be cached", MAX_PROJECTS));
+                break;
+            }
+            byId.put(project.string("id"), project);
+            byKey.put(project.string("key"), project);
+        }
+        projects = new Projects(byId, byKey);
+    }
+
+    public String getProjectKey(String id) {
+        Json project = getProjectById(id);
+        if (project != null) {
+            return project.string("key");
+        }
+        return null;
+    }
+
+    public String getProjectId(String key) {
+        Json project = projects.byKey.get(key);
+        if (project != null) {
+            return project.string("id");
+        }
+        return null;
+    }
+
+    public boolean isProjectKey(String key) {
+        return projects.byKey.containsKey(key);
+    }
+
+    public boolean isProjectId(String id) {
+        return projects.byId.containsKey(id);
+    }
+
+    private Json getProjectById(String id) {
+        if (id == null) {
+            return null;
+        }
+        Json project = projects.byId.get(id);
+        if (project == null) {
+            project = fetchWithoutFailing(() -> compact(jiraApi.findProject(id)), String.format("fetching project [%s]", id));
+            if (project == null) {
+                return null;
+            }
+            add(project);
+        }
+        return project;
+    }
+
+    private synchronized void add(Json project) {
+        Projects current = projects;
+        if (current.byId.size() >= MAX_PROJECTS) {
+            return;
+        }
+        Map<String, Json> byId = new HashMap<>(current.byId);
+        Map<String, Json> byKey = new HashMap<>(current.byKey);
+        byId.put(project.string("id"), project);
+        byKey.put(project.string("key"), project);
+        projects = new Projects(byId, byKey);
+    }
+
+    private Json compact(Json project) {
+        return Json.map()
+                .set("id", project.string("id"))
+                .set("key", project.string("key"))
+                .set("name", project.string("name"));
+    }
+
+    private static class Projects {
+        private final Map<String, Json> byId;
+        private final Map<String, Json> byKey;
+
+        private Projects(Map<String, Json> byId, Map<String, Json> byKey) {
+            this.byId = Collections.unmodifiableMap(byId);
+            this.byKey = Collections.unmodifiableMap(byKey);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent requests to JIRA, adapting the limit to the responses we
+ * get: it grows slowly while requests succeed and it is cut by half when JIRA says we are
+ * sending too many requests (additive increase, multiplicative decrease). When JIRA asks to
+ * wait, using 'Retry-After' or the 'X-RateLimit-*' headers, no new requests are sent until
+ * that time. Callers that cannot send a request wait in the queue instead of hitting JIRA.
+ *
+ * <p>It is registered as a response filter in the REST client to read the headers. Filters
+ * of synchronous requests run in the thread that does the request, so the permit of the
+ * request in progress is kept per thread, where the filter records the outcome. Nested
+ * requests in the same thread get their own permit and the outer one is restored on release.
+ */
+public class RateLimiter implements ClientResponseFilter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 10;
+    public static final long DEFAULT_MAX_WAIT = 60000;
+    private static final long DEFAULT_RETRY_AFTER = 1000;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxConcurrency;
+    private final long maxWaitMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ThreadLocal<Permit> current = new ThreadLocal<>();
+    private double limit;
+    private int inFlight = 0;
+    private long pausedUntil = 0;
+    private long rateLimitedResponses = 0;
+
+    public RateLimiter(int maxConcurrency, long maxWaitMillis) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be greater than zero");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaitMillis = maxWaitMillis;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Waits until a request can be sent to JIRA.
+     *
+     * @return the permit, which has to be given back with {@link #release(Permit)}
+     * @throws RuntimeException if the max wait time is reached
+     */
+    public Permit acquire() {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    throw new RuntimeException(String.format("Timeout waiting to send request to JIRA, there are [%d] requests in flight", inFlight));
+                }
+                if (now < pausedUntil) {
+                    available.await(Math.min(pausedUntil, deadline) - now, TimeUnit.MILLISECONDS);
+                } else if (inFlight >= (int) limit) {
+                    available.await(deadline - now, TimeUnit.MILLISECONDS);
+                } else {
+                    inFlight++;
+                    Permit permit = new Permit(current.get());
+                    current.set(permit);
+                    return permit;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to send request to JIRA", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the permit taken with {@link #acquire()} and adapts the limit based on the
+     * response of the request.
+     *
+     * @param permit the permit returned by {@link #acquire()}
+     * @return true if JIRA rejected the request because of rate limits, so it can be retried
+     */
+    public boolean release(Permit permit) {
+        if (permit.released) {
+            return permit.rateLimited;
+        }
+        permit.released = true;
+        if (current.get() == permit) {
+            if (permit.outer != null) {
+                current.set(permit.outer);
+            } else {
+                current.remove();
+            }
+        }
+        boolean limited = permit.rateLimited;
+        lock.lock();
+        try {
+            inFlight--;
+            if (limited) {
+                limit = Math.max(1, limit / 2);
+            } else {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return limited;
+    }
+
+    /**
+     * Releases the permit of the request in progress in this thread before the request is done.
+     * It is used when a request has to send a long body (like an upload), so the time sending it
+     * doesn't count as a request in flight. Releasing it again later doesn't do anything.
+     */
+    public void releaseCurrent() {
+        Permit permit = current.get();
+        if (permit != null) {
+            release(permit);
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) {
+        if (responseContext.getStatus() == TOO_MANY_REQUESTS) {
+            Permit permit = current.get();
+            if (permit != null) {
+                permit.rateLimited = true;
+            }
+            long retryAfter = parseRetryAfter(responseContext.getHeaderString("Retry-After"));
+            logger.info(String.format("Rate limit reached, waiting [%d] ms before sending more requests to JIRA", retryAfter));
+            pause(retryAfter, true);
+        } else if ("0".equals(responseContext.getHeaderString("X-RateLimit-Remaining"))) {
+            // we can still send this one, but the next ones will be rejected until the reset
+            long reset = parseReset(responseContext.getHeaderString("X-RateLimit-Reset"));
+            if (reset > 0) {
+                pause(reset, false);
+            }
+        }
+    }
+
+    public Json toJson() {
+        lock.lock();
+        try {
+            return Json.map()
+                    .set("maxConcurrency", maxConcurrency)
+                    .set("limit", (int) limit)
+                    .set("inFlight", inFlight)
+                    .set("pausedFor", Math.max(0, pausedUntil - System.currentTimeMillis()))
+                    .set("rateLimitedResponses", rateLimitedResponses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pause(long millis, boolean rejected) {
+        lock.lock();
+        try {
+            if (rejected) {
+                rateLimitedResponses++;
+            }
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long parseRetryAfter(String retryAfter) {
+        if (StringUtils.isBlank(retryAfter)) {
+            return DEFAULT_RETRY_AFTER;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            // it could be an HTTP date
+            try {
+                long date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, date - System.currentTimeMillis());
+            } catch (Exception de) {
+                return DEFAULT_RETRY_AFTER;
+            }
+        }
+    }
+
+    private long parseReset(String reset) {
+        if (StringUtils.isBlank(reset)) {
+            return 0;
+        }
+        try {
+            Instant instant = OffsetDateTime.parse(reset.trim()).toInstant();
+            return Math.max(0, instant.toEpochMilli() - System.currentTimeMillis());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Keeps the outcome of one request until it is released.
+     */
+    public static class Permit {
+        private final Permit outer;
+        private volatile boolean rateLimited = false;
+        private volatile boolean released = false;
+
+        private Permit(Permit outer) {
+            this.outer = outer;
+        }
+    }
+}
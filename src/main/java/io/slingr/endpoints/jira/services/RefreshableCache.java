@@ -0,0 +1,98 @@
+package io.slingr.endpoints.jira.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Base of the caches of JIRA metadata (like fields and projects) that are loaded at once and
+ * refreshed in the background.
+ *
+ * <p>Lookups in these caches are done while processing events, which shouldn't fail because
+ * JIRA is having problems. That's why refreshes and fetches done by lookups log errors instead
+ * of throwing them, and the cache keeps what it has.
+ */
+abstract class RefreshableCache {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * @param name what the cache holds, like 'fields'; used in logs and thread names
+     */
+    protected RefreshableCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reloads the cache from JIRA.
+     */
+    public abstract void refresh();
+
+    /**
+     * Refreshes the cache periodically in the background. Each refresh is delayed a random time
+     * within the jitter, so many endpoints don't hit JIRA at the same time. Errors are logged and
+     * the current data is kept until the next refresh.
+     *
+     * @param periodSeconds seconds between refreshes; zero or less disables it
+     * @param jitterSeconds max seconds added or subtracted to the period on each refresh
+     */
+    public synchronized void scheduleRefresh(long periodSeconds, long jitterSeconds) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (periodSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("jira-" + name + "-refresh"));
+        scheduleNextRefresh(scheduler, periodSeconds, Math.max(0, Math.min(jitterSeconds, periodSeconds - 1)));
+    }
+
+    private void scheduleNextRefresh(ScheduledExecutorService scheduler, long periodSeconds, long jitterSeconds) {
+        long delay = periodSeconds + (jitterSeconds > 0 ? ThreadLocalRandom.current().nextLong(-jitterSeconds, jitterSeconds + 1) : 0);
+        scheduler.schedule(() -> {
+            try {
+                refreshWithoutFailing();
+            } finally {
+                if (!scheduler.isShutdown()) {
+                    scheduleNextRefresh(scheduler, periodSeconds, jitterSeconds);
+                }
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Same as {@link #refresh()}, but errors are logged instead of thrown.
+     *
+     * @return true if the cache was refreshed
+     */
+    protected boolean refreshWithoutFailing() {
+        return fetchWithoutFailing(() -> {
+            refresh();
+            return true;
+        }, String.format("refreshing %s cache", name)) != null;
+    }
+
+    /**
+     * Calls JIRA for a lookup in the cache, logging errors instead of throwing them.
+     *
+     * @param fetch the call to JIRA
+     * @param description what the call does, used in the log, like 'fetching project [10000]'
+     * @return the result of the call or null if it failed
+     */
+    protected <T> T fetchWithoutFailing(Supplier<T> fetch, String description) {
+        try {
+            return fetch.get();
+        } catch (RuntimeException e) {
+            logger.warn(String.format("Problem %s - exception: [%s]", description, e.getMessage()));
+            return null;
+        }
+    }
+}
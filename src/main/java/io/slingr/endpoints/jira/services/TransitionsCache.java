@@ -0,0 +1,132 @@
+package io.slingr.endpoints.jira.services;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the workflow transitions available for each combination of project, issue type and
+ * status, so transition names can be resolved to ids without asking JIRA every time. To know
+ * which entry applies to an issue we also keep the last known state of the issues we see, which
+ * is updated when issues are fetched, when events arrive and when transitions are done.
+ *
+ * <p>Transitions can also depend on conditions like permissions or field values, so if JIRA
+ * rejects a transition resolved from this cache the issue should be invalidated and the
+ * transitions fetched again.
+ */
+public class TransitionsCache {
+    private static final int MAX_ISSUES = 10000;
+
+    private final long ttlMillis;
+    private final Map<String, Entry> transitionsByState = new ConcurrentHashMap<>();
+    private final Map<String, String> stateByIssue = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ISSUES;
+        }
+    };
+
+    public TransitionsCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the transitions for the issue if its state and the transitions for that state
+     * are known and haven't expired.
+     *
+     * @param issueKey the key of the issue
+     * @return the transitions in JIRA format or null if they are not in the cache
+     */
+    public List<Json> getTransitions(String issueKey) {
+        String state;
+        synchronized (stateByIssue) {
+            state = stateByIssue.get(issueKey);
+        }
+        if (state == null) {
+            return null;
+        }
+        Entry entry = transitionsByState.get(state);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.timestamp > ttlMillis) {
+            transitionsByState.remove(state, entry);
+            return null;
+        }
+        return entry.transitions;
+    }
+
+    /**
+     * Stores the state of the issue and, if the issue was fetched expanding transitions, the
+     * transitions available for that state.
+     *
+     * @param jiraIssue the issue in JIRA format
+     */
+    public void updateIssue(Json jiraIssue) {
+        if (jiraIssue == null || jiraIssue.isEmpty("key") || jiraIssue.isEmpty("fields")) {
+            return;
+        }
+        Json fields = jiraIssue.json("fields");
+        if (fields.isEmpty("project") || fields.isEmpty("issuetype") || fields.isEmpty("status")) {
+            return;
+        }
+        String state = state(fields.json("project").string("id"), fields.json("issuetype").string("id"), fields.json("status").string("id"));
+        synchronized (stateByIssue) {
+            stateByIssue.put(jiraIssue.string("key"), state);
+        }
+        if (jiraIssue.contains("transitions")) {
+            transitionsByState.put(state, new Entry(jiraIssue.jsons("transitions")));
+        }
+    }
+
+    /**
+     * Moves the issue to the target status of the transition, so the next transition on the same
+     * issue can be resolved from the cache.
+     *
+     * @param issueKey the key of the issue
+     * @param transition the transition done, in JIRA format
+     */
+    public void transitionDone(String issueKey, Json transition) {
+        synchronized (stateByIssue) {
+            String state = stateByIssue.get(issueKey);
+            if (state == null) {
+                return;
+            }
+            if (transition.isEmpty("to") || transition.json("to").isEmpty("id")) {
+                stateByIssue.remove(issueKey);
+                return;
+            }
+            String[] parts = state.split(":");
+            stateByIssue.put(issueKey, state(parts[0], parts[1], transition.json("to").string("id")));
+        }
+    }
+
+    public void invalidateIssue(String issueKey) {
+        synchronized (stateByIssue) {
+            stateByIssue.remove(issueKey);
+        }
+    }
+
+    public void invalidate() {
+        transitionsByState.clear();
+        synchronized (stateByIssue) {
+            stateByIssue.clear();
+        }
+    }
+
+    private String state(String projectId, String issueTypeId, String statusId) {
+        return projectId + ":" + issueTypeId + ":" + statusId;
+    }
+
+    private static class Entry {
+        private final List<Json> transitions;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Entry(List<Json> transitions) {
+            this.transitions = transitions;
+        }
+    }
+}
@@ -13,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -50,6 +52,111 @@ public class JiraEndpointTest {
         logger.info("-- END");
     }
 
+    @Test
+    public void testFindAllIssues() throws Exception {
+        Json req = Json.map()
+                .set("query", "labels = test")
+                .set("size", 5)
+                .set("chunkSize", 4);
+        Json res = test.executeFunction("findAllIssues", req);
+        assertNotNull(res.string("searchId"));
+        Assert.assertEquals(9, (int) res.integer("total"));
+        Assert.assertEquals(9, (int) res.integer("count"));
+        Assert.assertEquals(3, (int) res.integer("chunks"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testFindAllIssuesInParallel() throws Exception {
+        Json req = Json.map()
+                .set("query", "labels = test")
+                .set("size", 2)
+                .set("parallelism", 3);
+        Json res = test.executeFunction("findAllIssues", req);
+        Assert.assertEquals(9, (int) res.integer("total"));
+        Assert.assertEquals(9, (int) res.integer("count"));
+        Assert.assertEquals(5, (int) res.integer("chunks"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testTransferStats() throws Exception {
+        test.executeFunction("findIssues", Json.map().set("query", "labels = test"));
+        Json stats = test.executeFunction("connectionStats", Json.map()).json("compression");
+        assertTrue(stats.integer("responses") > 0);
+        assertTrue(stats.integer("wireBytes") > 0);
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testBulkheadsAndCircuitBreaker() throws Exception {
+        test.executeFunction("findIssue", Json.map().set("key", "TEST-2").set("fields", "summary"));
+        Json stats = test.executeFunction("connectionStats", Json.map());
+        assertEquals("closed", stats.json("circuitBreaker").string("state"));
+        assertEquals(0, (int) stats.json("bulkheads").json("search").integer("inProgress"));
+        assertEquals(0, (int) stats.json("bulkheads").json("write").integer("rejected"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testSyncIssues() throws Exception {
+        Json req = Json.map()
+                .set("syncId", "test-sync")
+                .set("query", "labels = test")
+                .set("reset", true);
+        Json res = test.executeFunction("syncIssues", req);
+        Assert.assertEquals(9, (int) res.integer("count"));
+        assertNotNull(res.string("watermark"));
+
+        // issues in the overlap are not sent again if they didn't change
+        req.set("reset", false);
+        res = test.executeFunction("syncIssues", req);
+        Assert.assertEquals(0, (int) res.integer("count"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testSyncIssuesUpdatedInTheSameMinute() throws Exception {
+        // issues created one after the other are updated in the same minute, and with small
+        // pages they take more than one page
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Json issue = test.executeFunction("createIssue", Json.map()
+                    .set("project", "TEST")
+                    .set("issueType", "Story")
+                    .set("summary", "testing sync " + i));
+            keys.add(issue.string("key"));
+        }
+        try {
+            Json req = Json.map()
+                    .set("syncId", "test-sync-same-minute")
+                    .set("query", "key in (" + String.join(",", keys) + ")")
+                    .set("size", 3)
+                    .set("reset", true);
+            Json res = test.executeFunction("syncIssues", req);
+            Assert.assertEquals(5, (int) res.integer("count"));
+            // pages are read by offset, not from the beginning again each time
+            Assert.assertEquals(2, (int) res.integer("pages"));
+            Assert.assertEquals(0, (int) res.integer("restarts"));
+
+            req.set("reset", false);
+            res = test.executeFunction("syncIssues", req);
+            Assert.assertEquals(0, (int) res.integer("count"));
+            Assert.assertEquals(5, (int) res.integer("skipped"));
+        } finally {
+            for (String key : keys) {
+                test.executeFunction("deleteIssue", Json.map().set("key", key));
+            }
+        }
+
+        logger.info("-- END");
+    }
+
     @Test
     public void testFindIssue() throws Exception {
         Json req = Json.map().set("key", "TEST-1");
@@ -59,6 +166,79 @@ public class JiraEndpointTest {
         logger.info("-- END");
     }
 
+    @Test
+    public void testFindIssueFromCache() throws Exception {
+        Json req = Json.map().set("key", "TEST-1");
+        Json res = test.executeFunction("findIssue", req);
+        assertEquals("TEST-1", res.string("key"));
+        int hits = test.executeFunction("connectionStats", Json.map()).json("issueCache").integer("hits");
+
+        res = test.executeFunction("findIssue", req);
+        assertEquals("TEST-1", res.string("key"));
+        Json stats = test.executeFunction("connectionStats", Json.map());
+        assertEquals(hits + 1, (int) stats.json("issueCache").integer("hits"));
+
+        // the same entry is found by id or by the key in lower case
+        res = test.executeFunction("findIssue", Json.map().set("key", res.string("id")));
+        assertEquals("TEST-1", res.string("key"));
+        res = test.executeFunction("findIssue", Json.map().set("key", "test-1"));
+        assertEquals("TEST-1", res.string("key"));
+        stats = test.executeFunction("connectionStats", Json.map());
+        assertEquals(hits + 3, (int) stats.json("issueCache").integer("hits"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testFindIssueWithTransitions() throws Exception {
+        Json req = Json.map()
+                .set("key", "TEST-1")
+                .set("includeTransitions", true);
+        Json res = test.executeFunction("findIssue", req);
+        assertEquals("TEST-1", res.string("key"));
+        assertFalse(res.jsons("transitions").isEmpty());
+        assertNotNull(res.jsons("transitions").get(0).string("name"));
+        assertNotNull(res.jsons("transitions").get(0).json("status"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testFindIssuesByKeys() throws Exception {
+        Json req = Json.map().set("keys", Json.list().push("TEST-3").push("TEST-1").push("TEST-99999"));
+        Json res = test.executeFunction("findIssuesByKeys", req);
+        assertEquals(2, res.jsons("items").size());
+        assertEquals("TEST-3", res.jsons("items").get(0).string("key"));
+        assertEquals("TEST-1", res.jsons("items").get(1).string("key"));
+        assertEquals(1, res.strings("notFound").size());
+        assertEquals("TEST-99999", res.strings("notFound").get(0));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testFindIssueWithFields() throws Exception {
+        Json req = Json.map()
+                .set("key", "TEST-1")
+                .set("fields", Json.list().push("summary").push("status"));
+        Json res = test.executeFunction("findIssue", req);
+        assertEquals("TEST-1", res.string("key"));
+        assertEquals("In Progress", res.json("status").string("name"));
+        assertNotNull(res.string("summary"));
+        assertFalse(res.contains("assignee"));
+        assertFalse(res.contains("progress"));
+        assertFalse(res.contains("comments"));
+
+        req = Json.map()
+                .set("query", "labels = test")
+                .set("fields", "summary,status");
+        res = test.executeFunction("findIssues", req);
+        assertEquals(9, (int) res.integer("total"));
+        assertFalse(res.jsons("items").get(0).contains("issueLinks"));
+
+        logger.info("-- END");
+    }
+
     @Test
     public void testErrorResponse() throws Exception {
         Json req = Json.map().set("size", "1000000");
@@ -185,6 +365,55 @@ public class JiraEndpointTest {
         logger.info("-- END");
     }
 
+    @Test
+    public void testDownloadAttachment() throws Exception {
+        Json issue = test.executeFunction("findIssue", Json.map().set("key", "TEST-3"));
+        Json attachment = issue.jsons("attachments").get(0);
+        Json res = test.executeFunction("downloadAttachment", Json.map().set("attachmentId", attachment.string("id")));
+        assertEquals("appicon.png", res.json("attachment").string("filename"));
+        assertNotNull(res.json("file"));
+        assertEquals(6313, (int) res.integer("size"));
+        assertEquals(64, res.string("checksum").length());
+
+        Json stats = test.executeFunction("connectionStats", Json.map());
+        assertEquals(0, (int) stats.json("bulkheads").json("transfer").integer("inProgress"));
+        assertEquals("closed", stats.json("circuitBreaker").string("state"));
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testAttachFile() throws Exception {
+        // we use an attachment of another issue as the file of the app
+        Json issue = test.executeFunction("findIssue", Json.map().set("key", "TEST-3"));
+        Json attachment = issue.jsons("attachments").get(0);
+        Json downloaded = test.executeFunction("downloadAttachment", Json.map().set("attachmentId", attachment.string("id")));
+
+        Json newIssue = test.executeFunction("createIssue", Json.map()
+                .set("project", "TEST")
+                .set("issueType", "Story")
+                .set("summary", "testing attachments"));
+        String issueKey = newIssue.string("key");
+        try {
+            Json res = test.executeFunction("attachFile", Json.map()
+                    .set("issueKey", issueKey)
+                    .set("fileId", downloaded.json("file").string("fileId")));
+            assertEquals(issueKey, res.string("issueKey"));
+            assertEquals(1, res.jsons("attachments").size());
+            assertEquals("appicon.png", res.jsons("attachments").get(0).string("filename"));
+            assertEquals(6313, (int) res.integer("size"));
+            assertEquals(downloaded.string("checksum"), res.string("checksum"));
+
+            Json stats = test.executeFunction("connectionStats", Json.map());
+            assertEquals(0, (int) stats.json("bulkheads").json("transfer").integer("inProgress"));
+            assertEquals(0, (int) stats.json("rateLimits").integer("inFlight"));
+        } finally {
+            test.executeFunction("deleteIssue", Json.map().set("key", issueKey));
+        }
+
+        logger.info("-- END");
+    }
+
     @Test
     public void testCreateAndUpdateAndDeleteIssue() throws Exception {
         Json req = Json.map()
@@ -197,7 +426,8 @@ public class JiraEndpointTest {
                 .set("reporter", "test")
                 .set("summary", "testing jira integration")
                 .set("descriptionFormat", "html")
-                .set("description", "<p>things to do:</p><ul><li>thing 1</li><li>thing 2</li></ul>");
+                .set("description", "<p>things to do:</p><ul><li>thing 1</li><li>thing 2</li></ul>")
+                .set("refetch", true);
         Json res = test.executeFunction("createIssue", req);
         assertNotNull(res);
         assertEquals("testing jira integration", res.string("summary"));
@@ -212,7 +442,8 @@ public class JiraEndpointTest {
                 .set("summary", "updated summary")
                 .set("labels", Json.list().push("label2").push("label3"))
                 .set("Main Reviewer", "test")   // custom field 10400
-                .set("Story Points", 3);        // custom field 10004
+                .set("Story Points", 3)         // custom field 10004
+                .set("refetch", true);
         res = test.executeFunction("updateIssue", req);
         assertNotNull(res);
         assertEquals("updated summary", res.string("summary"));
@@ -229,6 +460,107 @@ public class JiraEndpointTest {
         logger.info("-- END");
     }
 
+    @Test
+    public void testCreateAndUpdateIssueWithoutRefetch() throws Exception {
+        Json req = Json.map()
+                .set("project", "TEST")
+                .set("issueType", "Story")
+                .set("summary", "testing writes without refetch");
+        Json res = test.executeFunction("createIssue", req);
+        assertNotNull(res);
+        assertNotNull(res.string("id"));
+        String issueKey = res.string("key");
+        assertNotNull(issueKey);
+        assertFalse(res.contains("summary"));
+
+        req = Json.map()
+                .set("key", issueKey)
+                .set("summary", "updated without refetch");
+        res = test.executeFunction("updateIssue", req);
+        assertNotNull(res);
+        assertEquals(issueKey, res.string("key"));
+        assertFalse(res.contains("summary"));
+
+        req = Json.map()
+                .set("key", issueKey);
+        test.executeFunction("deleteIssue", req);
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testCreateIssues() throws Exception {
+        Json req = Json.map()
+                .set("issues", Json.list()
+                        .push(Json.map()
+                                .set("project", "TEST")
+                                .set("issueType", "Story")
+                                .set("summary", "bulk issue 1"))
+                        .push(Json.map()
+                                .set("project", "TEST")
+                                .set("issueType", "Invalid Type")
+                                .set("summary", "bulk issue 2"))
+                        .push(Json.map()
+                                .set("project", "TEST")
+                                .set("issueType", "Story")
+                                .set("summary", "bulk issue 3"))
+                );
+        Json res = test.executeFunction("createIssues", req);
+        assertNotNull(res);
+        assertEquals(2, (int) res.integer("created"));
+        assertEquals(1, (int) res.integer("failed"));
+        List<Json> results = res.jsons("results");
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).bool("success"));
+        assertFalse(results.get(1).bool("success"));
+        assertTrue(results.get(2).bool("success"));
+
+        for (Json result : results) {
+            if (result.bool("success")) {
+                test.executeFunction("deleteIssue", Json.map().set("key", result.string("key")));
+            }
+        }
+
+        logger.info("-- END");
+    }
+
+    @Test
+    public void testAddWorkLogs() throws Exception {
+        Json req = Json.map()
+                .set("project", "TEST")
+                .set("issueType", "Story")
+                .set("summary", "issue with work logs");
+        Json issue = test.executeFunction("createIssue", req);
+        assertNotNull(issue.string("key"));
+
+        req = Json.map()
+                .set("workLogs", Json.list()
+                        .push(Json.map()
+                                .set("issueKey", issue.string("key"))
+                                .set("timeSpent", 3600000)
+                                .set("comment", "first work log"))
+                        .push(Json.map()
+                                .set("issueKey", issue.string("key"))
+                                .set("timeSpent", 0))
+                        .push(Json.map()
+                                .set("issueKey", "TEST-1")
+                                .set("timeSpent", 1800000)
+                                .set("started", System.currentTimeMillis()))
+                );
+        Json res = test.executeFunction("addWorkLogs", req);
+        assertEquals(2, (int) res.integer("added"));
+        assertEquals(1, (int) res.integer("failed"));
+        List<Json> results = res.jsons("results");
+        assertTrue(results.get(0).bool("success"));
+        assertNotNull(results.get(0).string("id"));
+        assertFalse(results.get(1).bool("success"));
+        assertTrue(results.get(2).bool("success"));
+
+        test.executeFunction("deleteIssue", Json.map().set("key", issue.string("key")));
+
+        logger.info("-- END");
+    }
+
     @Test
     public void testAddComment() throws Exception {
         Json req = Json.map()
@@ -273,7 +605,10 @@ public class JiraEndpointTest {
         req = Json.map()
                 .set("issueKey", issueKey)
                 .set("transitionName", "Selected for Development");
-        test.executeFunction("doTransition", req);
+        res = test.executeFunction("doTransition", req);
+        assertNotNull(res);
+        assertEquals(issueKey, res.string("key"));
+        assertEquals("Selected for Development", res.json("status").string("name"));
 
         req = Json.map()
                 .set("key", issueKey);